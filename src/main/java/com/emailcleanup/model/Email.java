@@ -15,8 +15,14 @@ public class Email {
     private String category;
     private boolean hasUnsubscribeLink;
     private String unsubscribeUrl;
+    private boolean oneClickUnsubscribe;
+    private String listId;
     private boolean isRead;
     private String labelIds;
+    private int bodyLength;
+    private int linkCount;
+    private int textFeatures;
+    private int featureSignature;
 
     public Email() {
     }
@@ -121,6 +127,30 @@ public class Email {
         this.unsubscribeUrl = unsubscribeUrl;
     }
 
+    /**
+     * True when the sender advertises RFC 8058 one-click unsubscribe through a
+     * List-Unsubscribe-Post header, so the unsubscribe URL accepts a plain POST.
+     */
+    public boolean isOneClickUnsubscribe() {
+        return oneClickUnsubscribe;
+    }
+
+    public void setOneClickUnsubscribe(boolean oneClickUnsubscribe) {
+        this.oneClickUnsubscribe = oneClickUnsubscribe;
+    }
+
+    /**
+     * Identifier from the List-Id header of mailing-list mail, or null. Read during scanning
+     * only; it is not stored.
+     */
+    public String getListId() {
+        return listId;
+    }
+
+    public void setListId(String listId) {
+        this.listId = listId;
+    }
+
     public boolean isRead() {
         return isRead;
     }
@@ -137,6 +167,52 @@ public class Email {
         this.labelIds = labelIds;
     }
 
+    /**
+     * Length of the HTML body when it was downloaded, or 0.
+     */
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    public void setBodyLength(int bodyLength) {
+        this.bodyLength = bodyLength;
+    }
+
+    /**
+     * Number of links found in the decoded part of the HTML body.
+     */
+    public int getLinkCount() {
+        return linkCount;
+    }
+
+    public void setLinkCount(int linkCount) {
+        this.linkCount = linkCount;
+    }
+
+    /**
+     * Bit set of the text keyword groups that occurred in the subject, snippet and body when the
+     * email was categorized. Only meaningful together with {@link #getFeatureSignature()}.
+     */
+    public int getTextFeatures() {
+        return textFeatures;
+    }
+
+    public void setTextFeatures(int textFeatures) {
+        this.textFeatures = textFeatures;
+    }
+
+    /**
+     * Identifies the keyword groups {@link #getTextFeatures()} was matched against, or 0 if no
+     * feature record was taken, so it is only reused while those groups are unchanged.
+     */
+    public int getFeatureSignature() {
+        return featureSignature;
+    }
+
+    public void setFeatureSignature(int featureSignature) {
+        this.featureSignature = featureSignature;
+    }
+
     public String getSizeFormatted() {
         if (sizeBytes < 1024) {
             return sizeBytes + " B";
@@ -0,0 +1,209 @@
+package com.emailcleanup.model;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Persisted progress of a full mailbox scan. The page token points at the earliest listing page
+ * that is not yet fully stored, and the fetched IDs are the messages of that page that are.
+ * Once every listed message has been consumed the listing is marked complete, so a resumed scan
+ * does not list the mailbox again.
+ *
+ * <p>Messages that failed on a finished page are only counted, since a resumed scan does not
+ * list that page again; failures on the current page are retried when it is listed again.
+ */
+public class ScanCheckpoint {
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_PAUSED = "PAUSED";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_ABANDONED = "ABANDONED";
+
+    private String scanId;
+    private String status;
+    private int maxResults;
+    private String pageToken;
+    private BigInteger startHistoryId;
+    private int completedCount;
+    private int failedCount;
+    private boolean listingComplete;
+    private boolean refreshLabels;
+    private int pageConsumed;
+    private int pageFailed;
+    private final Set<String> fetchedIds = new LinkedHashSet<>();
+
+    public ScanCheckpoint() {
+    }
+
+    public static ScanCheckpoint start(int maxResults, BigInteger startHistoryId) {
+        ScanCheckpoint checkpoint = new ScanCheckpoint();
+        checkpoint.scanId = UUID.randomUUID().toString();
+        checkpoint.status = STATUS_RUNNING;
+        checkpoint.maxResults = maxResults;
+        checkpoint.startHistoryId = startHistoryId;
+        return checkpoint;
+    }
+
+    /**
+     * Records that a chunk of listed messages has been consumed. A different resume token means
+     * the previous page is complete, so its IDs are no longer needed to resume.
+     */
+    public void advance(String resumeToken, int consumed, List<String> fetched) {
+        if (!Objects.equals(resumeToken, pageToken)) {
+            completePage();
+            pageToken = resumeToken;
+        }
+        pageConsumed += consumed;
+        pageFailed += consumed - fetched.size();
+        fetchedIds.addAll(fetched);
+    }
+
+    /**
+     * Records that the last listed message has been consumed. The current page is then complete
+     * too, since nothing of it will be listed again.
+     */
+    public void finishListing() {
+        completePage();
+        listingComplete = true;
+    }
+
+    private void completePage() {
+        completedCount += pageConsumed;
+        failedCount += pageFailed;
+        pageConsumed = 0;
+        pageFailed = 0;
+        fetchedIds.clear();
+    }
+
+    public ScanCheckpoint copy() {
+        ScanCheckpoint copy = new ScanCheckpoint();
+        copy.scanId = scanId;
+        copy.status = status;
+        copy.maxResults = maxResults;
+        copy.pageToken = pageToken;
+        copy.startHistoryId = startHistoryId;
+        copy.completedCount = completedCount;
+        copy.failedCount = failedCount;
+        copy.listingComplete = listingComplete;
+        copy.refreshLabels = refreshLabels;
+        copy.pageConsumed = pageConsumed;
+        copy.pageFailed = pageFailed;
+        copy.fetchedIds.addAll(fetchedIds);
+        return copy;
+    }
+
+    public String getScanId() {
+        return scanId;
+    }
+
+    public void setScanId(String scanId) {
+        this.scanId = scanId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    public void setMaxResults(int maxResults) {
+        this.maxResults = maxResults;
+    }
+
+    public String getPageToken() {
+        return pageToken;
+    }
+
+    public void setPageToken(String pageToken) {
+        this.pageToken = pageToken;
+    }
+
+    public BigInteger getStartHistoryId() {
+        return startHistoryId;
+    }
+
+    public void setStartHistoryId(BigInteger startHistoryId) {
+        this.startHistoryId = startHistoryId;
+    }
+
+    public int getCompletedCount() {
+        return completedCount;
+    }
+
+    public void setCompletedCount(int completedCount) {
+        this.completedCount = completedCount;
+    }
+
+    /**
+     * Number of messages on finished pages that failed and will not be fetched again.
+     */
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    public void setFailedCount(int failedCount) {
+        this.failedCount = failedCount;
+    }
+
+    public boolean isListingComplete() {
+        return listingComplete;
+    }
+
+    public void setListingComplete(boolean listingComplete) {
+        this.listingComplete = listingComplete;
+    }
+
+    /**
+     * Whether the labels of messages that are already stored are read again, for scans that
+     * cannot rely on the mailbox history to have recorded their changes.
+     */
+    public boolean isRefreshLabels() {
+        return refreshLabels;
+    }
+
+    public void setRefreshLabels(boolean refreshLabels) {
+        this.refreshLabels = refreshLabels;
+    }
+
+    /**
+     * Number of listed messages already accounted for, used against {@code maxResults}.
+     */
+    public int getProcessedCount() {
+        return completedCount + pageConsumed;
+    }
+
+    public Set<String> getFetchedIds() {
+        return Collections.unmodifiableSet(fetchedIds);
+    }
+
+    /**
+     * Restores the stored messages of the current page. Its other messages failed and are
+     * listed and fetched again on resume, so only these count as consumed; failures of
+     * finished pages stay in {@link #getFailedCount}.
+     */
+    public void restorePage(List<String> ids) {
+        fetchedIds.clear();
+        fetchedIds.addAll(ids);
+        pageConsumed = fetchedIds.size();
+        pageFailed = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ScanCheckpoint{" +
+                "scanId='" + scanId + '\'' +
+                ", status='" + status + '\'' +
+                ", processed=" + getProcessedCount() +
+                '}';
+    }
+}
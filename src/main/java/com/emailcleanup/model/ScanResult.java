@@ -0,0 +1,92 @@
+package com.emailcleanup.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ScanResult {
+    private int processed;
+    private int saved;
+    private int skipped;
+    private boolean paused;
+    private Exception writeFailure;
+    private int earlierFailed;
+    private final List<String> failedIds = new ArrayList<>();
+
+    public ScanResult() {
+    }
+
+    public int getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(int processed) {
+        this.processed = processed;
+    }
+
+    public int getSaved() {
+        return saved;
+    }
+
+    public void addSaved(int count) {
+        this.saved += count;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public void addSkipped() {
+        this.skipped++;
+    }
+
+    public int getFailed() {
+        return failedIds.size() + earlierFailed;
+    }
+
+    public List<String> getFailedIds() {
+        return Collections.unmodifiableList(failedIds);
+    }
+
+    public void addFailure(String messageId) {
+        failedIds.add(messageId);
+    }
+
+    /**
+     * Counts messages that failed in an earlier run of a resumed scan and were not retried.
+     */
+    public void addEarlierFailures(int count) {
+        earlierFailed += count;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    public Exception getWriteFailure() {
+        return writeFailure;
+    }
+
+    public void setWriteFailure(Exception writeFailure) {
+        this.writeFailure = writeFailure;
+    }
+
+    public boolean hasFailures() {
+        return getFailed() > 0 || writeFailure != null;
+    }
+
+    @Override
+    public String toString() {
+        return "ScanResult{" +
+                "processed=" + processed +
+                ", saved=" + saved +
+                ", skipped=" + skipped +
+                ", failed=" + getFailed() +
+                ", paused=" + paused +
+                '}';
+    }
+}
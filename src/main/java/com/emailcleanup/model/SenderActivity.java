@@ -0,0 +1,17 @@
+package com.emailcleanup.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Totals over all stored email from one sender address. The name is the one on the newest
+ * email, and {@code lastReceived} is null if none of the emails has a date.
+ */
+public record SenderActivity(
+    String senderEmail,
+    String senderName,
+    int totalEmails,
+    int unreadCount,
+    LocalDateTime lastReceived,
+    long totalBytes
+) {
+}
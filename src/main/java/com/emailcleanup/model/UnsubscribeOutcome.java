@@ -0,0 +1,96 @@
+package com.emailcleanup.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Result of trying to unsubscribe from one sender.
+ */
+public class UnsubscribeOutcome {
+
+    public enum Status {
+        /** The sender's one-click endpoint accepted the POST. */
+        SUCCEEDED,
+        /** The one-click POST was rejected, timed out or could not be sent. */
+        FAILED,
+        /** The sender has no one-click endpoint; the link must be opened in a browser. */
+        BROWSER_REQUIRED,
+        /** The link was opened in the browser for the user to finish. */
+        OPENED_IN_BROWSER,
+        /** No stored email from the sender carries an unsubscribe link. */
+        NO_LINK
+    }
+
+    private String senderEmail;
+    private String url;
+    private Status status;
+    private int httpStatus;
+    private String detail;
+    private LocalDateTime attemptedAt;
+
+    public UnsubscribeOutcome() {
+    }
+
+    public UnsubscribeOutcome(String senderEmail, String url, Status status) {
+        this.senderEmail = senderEmail;
+        this.url = url;
+        this.status = status;
+        this.attemptedAt = LocalDateTime.now();
+    }
+
+    public String getSenderEmail() {
+        return senderEmail;
+    }
+
+    public void setSenderEmail(String senderEmail) {
+        this.senderEmail = senderEmail;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public int getHttpStatus() {
+        return httpStatus;
+    }
+
+    public void setHttpStatus(int httpStatus) {
+        this.httpStatus = httpStatus;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    public void setDetail(String detail) {
+        this.detail = detail;
+    }
+
+    public LocalDateTime getAttemptedAt() {
+        return attemptedAt;
+    }
+
+    public void setAttemptedAt(LocalDateTime attemptedAt) {
+        this.attemptedAt = attemptedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "UnsubscribeOutcome{" +
+                "senderEmail='" + senderEmail + '\'' +
+                ", status=" + status +
+                ", httpStatus=" + httpStatus +
+                '}';
+    }
+}
@@ -0,0 +1,156 @@
+package com.emailcleanup.service;
+
+import com.emailcleanup.model.Email;
+import com.emailcleanup.model.ScanCheckpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background stage that persists scanned emails while fetching continues. The scan thread fills
+ * a bounded queue while the writer thread commits the batch it drained last, flushing once
+ * enough emails are buffered or the oldest buffered email has waited long enough.
+ *
+ * <p>The newest checkpoint handed in with a batch is stored in the same transaction as the
+ * emails it covers. A failed write stops the writer; it is rethrown to the scan thread on the
+ * next {@link #submit} and by {@link #close}.
+ */
+final class AsyncEmailWriter implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncEmailWriter.class);
+
+    private static final int QUEUE_CAPACITY = 16;
+    private static final WriteRequest CLOSE = new WriteRequest(List.of(), null);
+
+    private final DatabaseService database;
+    private final int flushSize;
+    private final long flushIntervalNanos;
+    private final BlockingQueue<WriteRequest> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicInteger saved = new AtomicInteger();
+    private final Thread thread;
+    private volatile SQLException failure;
+
+    private record WriteRequest(List<Email> emails, ScanCheckpoint checkpoint) {
+    }
+
+    AsyncEmailWriter(DatabaseService database, int flushSize, long flushInterval, TimeUnit unit) {
+        this.database = database;
+        this.flushSize = flushSize;
+        this.flushIntervalNanos = unit.toNanos(flushInterval);
+        this.thread = new Thread(this::run, "email-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues emails for writing, blocking while the writer is behind. The checkpoint, if any,
+     * must be a snapshot that already accounts for these emails.
+     */
+    void submit(List<Email> emails, ScanCheckpoint checkpoint) throws SQLException, InterruptedException {
+        throwIfFailed();
+        queue.put(new WriteRequest(emails, checkpoint));
+    }
+
+    int getSaved() {
+        return saved.get();
+    }
+
+    SQLException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Writes everything still queued and stops the writer thread. An interrupt does not cut this
+     * short, since emails already handed in would be lost; it is restored once the writer is done.
+     */
+    @Override
+    public void close() throws SQLException {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(CLOSE);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        throwIfFailed();
+    }
+
+    private void throwIfFailed() throws SQLException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void run() {
+        List<Email> buffer = new ArrayList<>();
+        ScanCheckpoint checkpoint = null;
+        long firstBufferedAt = 0;
+
+        while (true) {
+            WriteRequest request;
+            try {
+                if (buffer.isEmpty() && checkpoint == null) {
+                    request = queue.take();
+                } else {
+                    long waitNanos = flushIntervalNanos - (System.nanoTime() - firstBufferedAt);
+                    request = queue.poll(Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                request = CLOSE;
+            }
+
+            if (request == CLOSE) {
+                flush(buffer, checkpoint);
+                return;
+            }
+            if (request != null && failure == null) {
+                if (buffer.isEmpty() && checkpoint == null) {
+                    firstBufferedAt = System.nanoTime();
+                }
+                buffer.addAll(request.emails());
+                if (request.checkpoint() != null) {
+                    checkpoint = request.checkpoint();
+                }
+            }
+
+            boolean due = System.nanoTime() - firstBufferedAt >= flushIntervalNanos;
+            if (buffer.size() >= flushSize || ((!buffer.isEmpty() || checkpoint != null) && due)) {
+                flush(buffer, checkpoint);
+                buffer = new ArrayList<>();
+                checkpoint = null;
+            }
+        }
+    }
+
+    private void flush(List<Email> buffer, ScanCheckpoint checkpoint) {
+        if (failure != null || (buffer.isEmpty() && checkpoint == null)) {
+            return;
+        }
+        try {
+            database.saveEmails(buffer, checkpoint);
+            saved.addAndGet(buffer.size());
+        } catch (SQLException e) {
+            logger.error("Failed to write {} emails", buffer.size(), e);
+            failure = e;
+        }
+    }
+}
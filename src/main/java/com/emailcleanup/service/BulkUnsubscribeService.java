@@ -0,0 +1,209 @@
+package com.emailcleanup.service;
+
+import com.emailcleanup.model.Email;
+import com.emailcleanup.model.UnsubscribeOutcome;
+import com.emailcleanup.model.UnsubscribeOutcome.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Unsubscribes from many senders at once. Senders whose stored mail advertises RFC 8058
+ * one-click unsubscribe get a {@code List-Unsubscribe=One-Click} POST, sent concurrently with a
+ * cap on requests in flight per host; everyone else is marked for the browser. Every outcome is
+ * recorded per sender in the database.
+ */
+public class BulkUnsubscribeService {
+    private static final Logger logger = LoggerFactory.getLogger(BulkUnsubscribeService.class);
+    private static BulkUnsubscribeService instance;
+
+    private static final String ONE_CLICK_BODY = "List-Unsubscribe=One-Click";
+    private static final int DEFAULT_PARALLELISM = 16;
+    private static final int DEFAULT_PER_HOST_LIMIT = 2;
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(15);
+    private static final int MAX_DETAIL_LENGTH = 1000;
+
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final HttpClient httpClient;
+
+    private volatile int parallelism = DEFAULT_PARALLELISM;
+    private volatile int perHostLimit = DEFAULT_PER_HOST_LIMIT;
+    private volatile Duration requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+
+    private BulkUnsubscribeService() {
+        // RFC 8058 forbids following a redirect with a GET, so redirects are not followed at all
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    public static synchronized BulkUnsubscribeService getInstance() {
+        if (instance == null) {
+            instance = new BulkUnsubscribeService();
+        }
+        return instance;
+    }
+
+    /**
+     * Number of one-click POSTs that may be in flight across all hosts.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Number of one-click POSTs that may be in flight against a single host.
+     */
+    public void setPerHostLimit(int perHostLimit) {
+        this.perHostLimit = Math.max(1, perHostLimit);
+        hostPermits.clear();
+    }
+
+    public void setRequestTimeout(Duration requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Sends one-click unsubscribe requests for the given senders and returns one outcome per
+     * sender, in the order given. Senders without one-click support come back as
+     * {@link Status#BROWSER_REQUIRED}; pass them to {@link #openInBrowser} to finish them.
+     */
+    public List<UnsubscribeOutcome> unsubscribeAll(List<String> senderEmails,
+                                                   Consumer<String> progressCallback) throws Exception {
+        Map<String, Email> targets = DatabaseService.getInstance().findUnsubscribeTargets(senderEmails);
+        List<UnsubscribeOutcome> outcomes = new ArrayList<>(senderEmails.size());
+        List<CompletableFuture<UnsubscribeOutcome>> pending = new ArrayList<>();
+        AtomicInteger done = new AtomicInteger();
+        int oneClick = (int) targets.values().stream().filter(Email::isOneClickUnsubscribe).count();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, oneClick)), runnable -> {
+            Thread thread = new Thread(runnable, "unsubscribe-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (String sender : senderEmails) {
+                Email target = targets.get(sender);
+                if (target == null) {
+                    pending.add(CompletableFuture.completedFuture(new UnsubscribeOutcome(sender, null, Status.NO_LINK)));
+                } else if (!target.isOneClickUnsubscribe()) {
+                    pending.add(CompletableFuture.completedFuture(
+                            new UnsubscribeOutcome(sender, target.getUnsubscribeUrl(), Status.BROWSER_REQUIRED)));
+                } else {
+                    pending.add(CompletableFuture.supplyAsync(() -> {
+                        UnsubscribeOutcome outcome = postOneClick(sender, target.getUnsubscribeUrl());
+                        progressCallback.accept(String.format("Unsubscribed %d/%d one-click senders",
+                                done.incrementAndGet(), oneClick));
+                        return outcome;
+                    }, executor));
+                }
+            }
+            for (CompletableFuture<UnsubscribeOutcome> future : pending) {
+                outcomes.add(future.join());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        DatabaseService.getInstance().saveUnsubscribeOutcomes(outcomes);
+        logger.info("Bulk unsubscribe finished: {} senders, {} one-click, {} succeeded", senderEmails.size(),
+                oneClick, outcomes.stream().filter(o -> o.getStatus() == Status.SUCCEEDED).count());
+        return outcomes;
+    }
+
+    /**
+     * Opens the unsubscribe page of every {@link Status#BROWSER_REQUIRED} outcome in the
+     * browser and records them as {@link Status#OPENED_IN_BROWSER}.
+     */
+    public void openInBrowser(List<UnsubscribeOutcome> outcomes) throws Exception {
+        List<UnsubscribeOutcome> opened = new ArrayList<>();
+        for (UnsubscribeOutcome outcome : outcomes) {
+            if (outcome.getStatus() == Status.BROWSER_REQUIRED) {
+                EmailActionService.getInstance().openUnsubscribeLink(outcome.getUrl());
+                outcome.setStatus(Status.OPENED_IN_BROWSER);
+                opened.add(outcome);
+            }
+        }
+        DatabaseService.getInstance().saveUnsubscribeOutcomes(opened);
+    }
+
+    private UnsubscribeOutcome postOneClick(String sender, String url) {
+        UnsubscribeOutcome outcome = new UnsubscribeOutcome(sender, url, Status.FAILED);
+        URI uri;
+        try {
+            uri = URI.create(url);
+        } catch (IllegalArgumentException e) {
+            outcome.setDetail(truncate("Invalid URL: " + e.getMessage()));
+            return outcome;
+        }
+        // RFC 8058 requires the one-click URI to be https
+        if (!"https".equalsIgnoreCase(uri.getScheme()) && !isLoopback(uri)) {
+            outcome.setStatus(Status.BROWSER_REQUIRED);
+            outcome.setDetail("One-click URL is not https");
+            return outcome;
+        }
+
+        Semaphore permits = hostPermits.computeIfAbsent(hostOf(uri), host -> new Semaphore(perHostLimit));
+        try {
+            permits.acquire();
+            try {
+                HttpRequest request = HttpRequest.newBuilder(uri)
+                        .timeout(requestTimeout)
+                        .header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(HttpRequest.BodyPublishers.ofString(ONE_CLICK_BODY))
+                        .build();
+                HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+                outcome.setHttpStatus(response.statusCode());
+                if (response.statusCode() >= 200 && response.statusCode() < 300) {
+                    outcome.setStatus(Status.SUCCEEDED);
+                } else {
+                    outcome.setDetail("HTTP " + response.statusCode());
+                }
+            } finally {
+                permits.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            outcome.setDetail("Interrupted");
+        } catch (Exception e) {
+            logger.debug("One-click unsubscribe failed for {}", sender, e);
+            outcome.setDetail(truncate(e.getClass().getSimpleName() + ": " + e.getMessage()));
+        }
+        outcome.setAttemptedAt(LocalDateTime.now());
+        return outcome;
+    }
+
+    private static String hostOf(URI uri) {
+        return uri.getHost() != null ? uri.getHost().toLowerCase(Locale.ROOT) : "";
+    }
+
+    // Plain http is accepted for loopback so a local stand-in server can answer the POSTs
+    private static boolean isLoopback(URI uri) {
+        String host = hostOf(uri);
+        return "http".equalsIgnoreCase(uri.getScheme())
+                && (host.equals("localhost") || host.equals("127.0.0.1") || host.equals("[::1]"));
+    }
+
+    private static String truncate(String detail) {
+        return detail.length() <= MAX_DETAIL_LENGTH ? detail : detail.substring(0, MAX_DETAIL_LENGTH);
+    }
+}
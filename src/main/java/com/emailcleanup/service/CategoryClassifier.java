@@ -0,0 +1,303 @@
+package com.emailcleanup.service;
+
+import com.emailcleanup.model.Email;
+import com.emailcleanup.service.EmailCategorizerService.ClassifierSummary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multinomial naive Bayes over hashed tokens of the subject, snippet and sender address. Tokens
+ * are runs of letters and digits, case-folded and hashed while the text is read, and the model
+ * is a flat array of per-bucket log likelihoods, so classifying an email allocates nothing and
+ * takes a few microseconds.
+ *
+ * <p>Training labels come from Gmail's own categorisation of stored mail: the SPAM label and the
+ * CATEGORY_* tab labels. The body is not a feature because stored mail keeps only the snippet.
+ */
+final class CategoryClassifier {
+    private static final int MAGIC = 0x534D4E42; // "SMNB"
+    private static final int VERSION = 2;
+    private static final int BUCKET_BITS = 17;
+    private static final int BUCKETS = 1 << BUCKET_BITS;
+    private static final double SMOOTHING = 1.0;
+    private static final int TEXT_SEED = 0x811C9DC5;
+    private static final int SENDER_SEED = 0x2F6B1E47;
+    private static final int FNV_PRIME = 0x01000193;
+    // Every tenth labelled email is held out to measure accuracy
+    private static final int HOLDOUT_EVERY = 10;
+
+    /**
+     * Gmail labels used as training targets, in priority order, with the category each means.
+     */
+    private static final Map<String, String> LABEL_CATEGORIES = new LinkedHashMap<>();
+
+    static {
+        LABEL_CATEGORIES.put("SPAM", "SPAM");
+        LABEL_CATEGORIES.put("CATEGORY_PROMOTIONS", "PROMOTIONAL");
+        LABEL_CATEGORIES.put("CATEGORY_SOCIAL", "SOCIAL");
+        LABEL_CATEGORIES.put("CATEGORY_FORUMS", "NEWSLETTER");
+        LABEL_CATEGORIES.put("CATEGORY_UPDATES", "NEWSLETTER");
+        LABEL_CATEGORIES.put("CATEGORY_PERSONAL", "IMPORTANT");
+    }
+
+    private static final ThreadLocal<Scorer> SCORERS = ThreadLocal.withInitial(Scorer::new);
+
+    private final String[] categories;
+    private final float[] logPriors;
+    // Token-major: the likelihoods of all categories for one bucket are adjacent
+    private final float[] logLikelihoods;
+    private final double minMargin;
+
+    private CategoryClassifier(String[] categories, float[] logPriors, float[] logLikelihoods, double minMargin) {
+        this.categories = categories;
+        this.logPriors = logPriors;
+        this.logLikelihoods = logLikelihoods;
+        this.minMargin = minMargin;
+    }
+
+    /**
+     * Returns the Gmail-assigned category of a stored email, or null if it has none.
+     */
+    static String labelledCategory(String labelIds) {
+        if (labelIds == null || labelIds.isEmpty()) {
+            return null;
+        }
+        for (Map.Entry<String, String> entry : LABEL_CATEGORIES.entrySet()) {
+            if (labelIds.contains(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collects token counts from labelled emails and turns them into a model.
+     */
+    static final class Trainer {
+        private final Map<String, Integer> categoryIndex = new LinkedHashMap<>();
+        private final List<long[]> counts = new ArrayList<>();
+        private final List<Email> heldOut = new ArrayList<>();
+        private long[] documents = new long[0];
+        private int seen;
+
+        /**
+         * Adds an email if Gmail categorised it; every tenth one is kept for evaluation.
+         */
+        void accept(Email email) {
+            String category = labelledCategory(email.getLabelIds());
+            if (category == null) {
+                return;
+            }
+            if (++seen % HOLDOUT_EVERY == 0) {
+                heldOut.add(email);
+                return;
+            }
+            int c = categoryIndex.computeIfAbsent(category, k -> {
+                counts.add(new long[BUCKETS]);
+                documents = Arrays.copyOf(documents, documents.length + 1);
+                return counts.size() - 1;
+            });
+            documents[c]++;
+            long[] bucketCounts = counts.get(c);
+            forEachBucket(email, bucket -> bucketCounts[bucket]++);
+        }
+
+        /**
+         * Builds the model. Predictions whose log-probability lead over the runner-up is below
+         * {@code minMargin} are reported as uncertain.
+         */
+        CategoryClassifier build(double minMargin) {
+            int classes = counts.size();
+            if (classes < 2) {
+                throw new IllegalStateException("Need emails from at least two Gmail categories to train, found " + classes);
+            }
+            String[] categories = categoryIndex.keySet().toArray(new String[0]);
+            long totalDocuments = 0;
+            for (long d : documents) {
+                totalDocuments += d;
+            }
+
+            float[] logPriors = new float[classes];
+            float[] logLikelihoods = new float[BUCKETS * classes];
+            for (int c = 0; c < classes; c++) {
+                logPriors[c] = (float) Math.log((double) documents[c] / totalDocuments);
+                long[] bucketCounts = counts.get(c);
+                long tokens = 0;
+                for (long n : bucketCounts) {
+                    tokens += n;
+                }
+                double denominator = Math.log(tokens + SMOOTHING * BUCKETS);
+                for (int b = 0; b < BUCKETS; b++) {
+                    logLikelihoods[b * classes + c] = (float) (Math.log(bucketCounts[b] + SMOOTHING) - denominator);
+                }
+            }
+            return new CategoryClassifier(categories, logPriors, logLikelihoods, minMargin);
+        }
+
+        /**
+         * Accuracy of a model on the held-out emails, counting only confident predictions.
+         */
+        ClassifierSummary evaluate(CategoryClassifier model) {
+            int correct = 0;
+            int predicted = 0;
+            for (Email email : heldOut) {
+                String category = model.classify(email);
+                if (category != null) {
+                    predicted++;
+                    if (category.equals(labelledCategory(email.getLabelIds()))) {
+                        correct++;
+                    }
+                }
+            }
+            int trained = seen - heldOut.size();
+            return new ClassifierSummary(trained, heldOut.size(), predicted == 0 ? 0 : (double) correct / predicted);
+        }
+    }
+
+    /**
+     * Returns the most likely category, or null when the model is not confident enough.
+     */
+    String classify(Email email) {
+        Scorer scorer = SCORERS.get();
+        scorer.reset(this);
+        forEachBucket(email, scorer);
+        double[] scores = scorer.scores;
+
+        int classes = categories.length;
+        int best = 0;
+        double runnerUp = Double.NEGATIVE_INFINITY;
+        for (int c = 1; c < classes; c++) {
+            if (scores[c] > scores[best]) {
+                runnerUp = scores[best];
+                best = c;
+            } else if (scores[c] > runnerUp) {
+                runnerUp = scores[c];
+            }
+        }
+        return scores[best] - runnerUp >= minMargin ? categories[best] : null;
+    }
+
+    void save(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(BUCKETS);
+            out.writeDouble(minMargin);
+            out.writeInt(categories.length);
+            for (int c = 0; c < categories.length; c++) {
+                out.writeUTF(categories[c]);
+                out.writeFloat(logPriors[c]);
+            }
+            for (float value : logLikelihoods) {
+                out.writeFloat(value);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static CategoryClassifier load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != BUCKETS) {
+                throw new IOException("Unsupported classifier model " + file);
+            }
+            double minMargin = in.readDouble();
+            int classes = in.readInt();
+            String[] categories = new String[classes];
+            float[] logPriors = new float[classes];
+            for (int c = 0; c < classes; c++) {
+                categories[c] = in.readUTF();
+                logPriors[c] = in.readFloat();
+            }
+            float[] logLikelihoods = new float[BUCKETS * classes];
+            for (int i = 0; i < logLikelihoods.length; i++) {
+                logLikelihoods[i] = in.readFloat();
+            }
+            return new CategoryClassifier(categories, logPriors, logLikelihoods, minMargin);
+        }
+    }
+
+    @FunctionalInterface
+    private interface BucketConsumer {
+        void accept(int bucket);
+    }
+
+    /**
+     * Per-thread score accumulator, reused so classifying allocates nothing.
+     */
+    private static final class Scorer implements BucketConsumer {
+        private double[] scores = new double[0];
+        private float[] logLikelihoods;
+        private int classes;
+
+        void reset(CategoryClassifier model) {
+            classes = model.categories.length;
+            logLikelihoods = model.logLikelihoods;
+            if (scores.length != classes) {
+                scores = new double[classes];
+            }
+            for (int c = 0; c < classes; c++) {
+                scores[c] = model.logPriors[c];
+            }
+        }
+
+        @Override
+        public void accept(int bucket) {
+            int base = bucket * classes;
+            for (int c = 0; c < classes; c++) {
+                scores[c] += logLikelihoods[base + c];
+            }
+        }
+    }
+
+    private static void forEachBucket(Email email, BucketConsumer consumer) {
+        if (email.getSubject() != null) {
+            hashTokens(email.getSubject(), TEXT_SEED, consumer);
+        }
+        if (email.getSnippet() != null) {
+            hashTokens(email.getSnippet(), TEXT_SEED, consumer);
+        }
+        if (email.getFrom() != null) {
+            hashTokens(email.getFrom(), SENDER_SEED, consumer);
+        }
+    }
+
+    /**
+     * Hashes each run of letters and digits with FNV-1a over its case-folded chars and reports
+     * its bucket. Single characters are skipped.
+     */
+    private static void hashTokens(CharSequence text, int seed, BucketConsumer consumer) {
+        int hash = seed;
+        int length = 0;
+        for (int i = 0, n = text.length(); i <= n; i++) {
+            char c = i < n ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                hash = (hash ^ Character.toLowerCase(c)) * FNV_PRIME;
+                length++;
+            } else {
+                if (length > 1) {
+                    consumer.accept(bucketOf(hash));
+                }
+                hash = seed;
+                length = 0;
+            }
+        }
+    }
+
+    private static int bucketOf(int hash) {
+        // Fold the high bits in, FNV's low bits alone spread poorly over a power-of-two table
+        return (hash ^ (hash >>> (Integer.SIZE - BUCKET_BITS))) & (BUCKETS - 1);
+    }
+}
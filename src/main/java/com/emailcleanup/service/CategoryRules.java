@@ -0,0 +1,351 @@
+package com.emailcleanup.service;
+
+import com.emailcleanup.model.Email;
+import com.emailcleanup.service.EmailCategorizerService.RuleStats;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An ordered list of categorization rules compiled from a rule file. Each rule names the
+ * keyword groups that must all occur and, optionally, whether the email must carry an
+ * unsubscribe link; the first rule that holds decides the category.
+ *
+ * <p>All keyword groups of a field are compiled into one {@link KeywordMatcher}, so a field is
+ * scanned at most once per email, and only when the first rule that needs it is reached. Every
+ * rule counts how often it was evaluated and fired and the time spent evaluating it, including
+ * any field scan it triggered.
+ *
+ * <p>Categorizing an email records which text keyword groups occurred in it, tagged with a
+ * signature of those groups, so stored mail can be {@linkplain #recategorize recategorized}
+ * later without its body as long as the text groups stay the same. A record taken from subject
+ * and snippet alone, as for mail decided by something other than the rules, is tagged with the
+ * complement of the signature instead, so it is never mistaken for one that covers the body.
+ */
+final class CategoryRules {
+
+    /**
+     * Part of the email a keyword group is matched against. TEXT is the subject, snippet and
+     * body read as if joined by single spaces; a truncated body is read as its head and tail
+     * windows, also joined by a space.
+     */
+    enum Field {
+        TEXT, SENDER, LABELS
+    }
+
+    /**
+     * JSON shape of a rule file.
+     */
+    static final class Definition {
+        public Map<String, GroupDefinition> groups = new LinkedHashMap<>();
+        public List<RuleDefinition> rules = new ArrayList<>();
+        public String defaultCategory = "IMPORTANT";
+    }
+
+    static final class GroupDefinition {
+        public Field field = Field.TEXT;
+        public List<String> keywords = new ArrayList<>();
+    }
+
+    static final class RuleDefinition {
+        public String name;
+        public Boolean unsubscribe;
+        public List<String> match = new ArrayList<>();
+        public String category;
+    }
+
+    private static final int FIELDS = Field.values().length;
+    private static final int TEXT = Field.TEXT.ordinal();
+    private static final int SENDER = Field.SENDER.ordinal();
+    private static final int LABELS = Field.LABELS.ordinal();
+    // One bit of a matcher's result is kept free so no scan result equals NOT_SCANNED
+    private static final int MAX_GROUPS_PER_FIELD = Integer.SIZE - 1;
+    private static final int NOT_SCANNED = -1;
+
+    private static final class Rule {
+        final String name;
+        final String category;
+        final Boolean unsubscribe;
+        final int[] required = new int[FIELDS];
+        final LongAdder evaluations = new LongAdder();
+        final LongAdder hits = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+
+        Rule(String name, String category, Boolean unsubscribe) {
+            this.name = name;
+            this.category = category;
+            this.unsubscribe = unsubscribe;
+        }
+
+        boolean appliesTo(Email email) {
+            return unsubscribe == null || unsubscribe == email.isHasUnsubscribeLink();
+        }
+    }
+
+    private final KeywordMatcher[] matchers;
+    private final Rule[] rules;
+    private final String defaultCategory;
+    private final int textSignature;
+    private final LongAdder defaultHits = new LongAdder();
+
+    private CategoryRules(KeywordMatcher[] matchers, Rule[] rules, String defaultCategory, int textSignature) {
+        this.matchers = matchers;
+        this.rules = rules;
+        this.defaultCategory = defaultCategory;
+        this.textSignature = textSignature;
+    }
+
+    /**
+     * Validates a rule file and compiles it. Unknown group names, rules without a category and
+     * fields with more groups than a matcher can report are rejected.
+     */
+    static CategoryRules compile(Definition definition) {
+        List<List<List<String>>> fieldGroups = new ArrayList<>();
+        for (int f = 0; f < FIELDS; f++) {
+            fieldGroups.add(new ArrayList<>());
+        }
+        Map<String, Field> groupFields = new LinkedHashMap<>();
+        Map<String, Integer> groupBits = new LinkedHashMap<>();
+        if (definition.groups == null || definition.rules == null) {
+            throw new IllegalArgumentException("A rule file needs both groups and rules");
+        }
+        for (Map.Entry<String, GroupDefinition> entry : definition.groups.entrySet()) {
+            GroupDefinition group = entry.getValue();
+            if (group.field == null) {
+                throw new IllegalArgumentException("Group '" + entry.getKey() + "' has no field");
+            }
+            List<List<String>> groups = fieldGroups.get(group.field.ordinal());
+            if (groups.size() == MAX_GROUPS_PER_FIELD) {
+                throw new IllegalArgumentException("More than " + MAX_GROUPS_PER_FIELD + " groups on field " + group.field);
+            }
+            List<String> keywords = new ArrayList<>();
+            if (group.keywords != null) {
+                for (String keyword : group.keywords) {
+                    keywords.add(keyword.toLowerCase(Locale.ROOT));
+                }
+            }
+            groupFields.put(entry.getKey(), group.field);
+            groupBits.put(entry.getKey(), 1 << groups.size());
+            groups.add(keywords);
+        }
+
+        KeywordMatcher[] matchers = new KeywordMatcher[FIELDS];
+        for (int f = 0; f < FIELDS; f++) {
+            matchers[f] = KeywordMatcher.compile(fieldGroups.get(f));
+        }
+
+        Rule[] rules = new Rule[definition.rules.size()];
+        for (int i = 0; i < rules.length; i++) {
+            RuleDefinition def = definition.rules.get(i);
+            String name = def.name != null ? def.name : "rule-" + (i + 1);
+            if (def.category == null || def.category.isBlank()) {
+                throw new IllegalArgumentException("Rule '" + name + "' has no category");
+            }
+            Rule rule = new Rule(name, def.category, def.unsubscribe);
+            for (String groupName : def.match != null ? def.match : List.<String>of()) {
+                Field field = groupFields.get(groupName);
+                if (field == null) {
+                    throw new IllegalArgumentException("Rule '" + name + "' uses unknown group '" + groupName + "'");
+                }
+                rule.required[field.ordinal()] |= groupBits.get(groupName);
+            }
+            rules[i] = rule;
+        }
+
+        String defaultCategory = definition.defaultCategory != null ? definition.defaultCategory : "IMPORTANT";
+        // Feature bits depend only on the text keywords and their group order; 0 means no record,
+        // and neither the signature nor its header-only complement may be 0
+        int textSignature = fieldGroups.get(TEXT).hashCode();
+        if (textSignature == 0 || textSignature == -1) {
+            textSignature = 1;
+        }
+        return new CategoryRules(matchers, rules, defaultCategory, textSignature);
+    }
+
+    /**
+     * Returns the category of the first rule that holds, or the default category, and records
+     * the matched text keyword groups on the email as its feature record. The body comes as
+     * its head and tail windows; either may be null.
+     */
+    String categorize(Email email, CharSequence bodyHead, CharSequence bodyTail) {
+        int text = NOT_SCANNED;
+        int sender = NOT_SCANNED;
+        int labels = NOT_SCANNED;
+        String category = null;
+
+        for (Rule rule : rules) {
+            if (!rule.appliesTo(email)) {
+                continue;
+            }
+            long start = System.nanoTime();
+            int[] required = rule.required;
+            if (required[TEXT] != 0 && text == NOT_SCANNED) {
+                text = matchText(email, bodyHead, bodyTail);
+            }
+            if (required[SENDER] != 0 && sender == NOT_SCANNED) {
+                sender = matchSender(email);
+            }
+            if (required[LABELS] != 0 && labels == NOT_SCANNED) {
+                labels = matchLabels(email);
+            }
+            boolean holds = (text & required[TEXT]) == required[TEXT]
+                    && (sender & required[SENDER]) == required[SENDER]
+                    && (labels & required[LABELS]) == required[LABELS];
+            rule.evaluations.increment();
+            rule.nanos.add(System.nanoTime() - start);
+            if (holds) {
+                rule.hits.increment();
+                category = rule.category;
+                break;
+            }
+        }
+        if (category == null) {
+            defaultHits.increment();
+            category = defaultCategory;
+        }
+
+        // The body is gone once the email is stored, so the record must cover its text even
+        // when an earlier rule decided without reading it
+        email.setTextFeatures(text != NOT_SCANNED ? text : matchText(email, bodyHead, bodyTail));
+        email.setFeatureSignature(textSignature);
+        return category;
+    }
+
+    /**
+     * Records the text keyword groups of the subject and snippet of an email whose body was
+     * not downloaded or was not read because something other than the rules decided it,
+     * tagged as covering the headers only.
+     */
+    void recordHeaderFeatures(Email email) {
+        email.setTextFeatures(KeywordMatcher.found(feedHeaderText(email)));
+        email.setFeatureSignature(~textSignature);
+    }
+
+    /**
+     * Categorizes a stored email again without its body. Text keywords come from the email's
+     * feature record if it was taken under the current text groups, and the category is then
+     * exactly what {@link #categorize} would return. Otherwise only subject and snippet are
+     * matched, taken from a header-only record if there is one, and null is returned as soon
+     * as a rule fails on text alone, since the body might have held the missing keywords.
+     * Statistics are not updated.
+     */
+    String recategorize(Email email) {
+        int signature = email.getFeatureSignature();
+        boolean recorded = signature == textSignature;
+        int text = recorded || signature == ~textSignature ? email.getTextFeatures() : NOT_SCANNED;
+        int sender = NOT_SCANNED;
+        int labels = NOT_SCANNED;
+
+        for (Rule rule : rules) {
+            if (!rule.appliesTo(email)) {
+                continue;
+            }
+            int[] required = rule.required;
+            if (required[TEXT] != 0 && text == NOT_SCANNED) {
+                text = KeywordMatcher.found(feedHeaderText(email));
+            }
+            if (required[SENDER] != 0 && sender == NOT_SCANNED) {
+                sender = matchSender(email);
+            }
+            if (required[LABELS] != 0 && labels == NOT_SCANNED) {
+                labels = matchLabels(email);
+            }
+            boolean textHolds = (text & required[TEXT]) == required[TEXT];
+            boolean othersHold = (sender & required[SENDER]) == required[SENDER]
+                    && (labels & required[LABELS]) == required[LABELS];
+            if (textHolds && othersHold) {
+                return rule.category;
+            }
+            if (!recorded && othersHold) {
+                return null;
+            }
+        }
+        return defaultCategory;
+    }
+
+    /**
+     * Decides a category from subject and snippet alone, or returns null if the body could
+     * still change the outcome. Rules are followed in order while they only test text keywords
+     * and the unsubscribe flag. The first applicable rule decides if its keywords already occur
+     * in the header text; if they do not, the body might hold them, so the walk ends there, as
+     * it does at a rule that tests no text or another field. A decision is therefore always
+     * the one {@link #categorize} reaches with the body. The header text is recorded on the
+     * email as a header-only feature record either way.
+     */
+    String categorizeFromHeaders(Email email) {
+        recordHeaderFeatures(email);
+        for (Rule rule : rules) {
+            if (!rule.appliesTo(email)) {
+                continue;
+            }
+            int[] required = rule.required;
+            if (required[TEXT] == 0 || required[SENDER] != 0 || required[LABELS] != 0) {
+                return null;
+            }
+            rule.evaluations.increment();
+            if ((email.getTextFeatures() & required[TEXT]) != required[TEXT]) {
+                return null;
+            }
+            rule.hits.increment();
+            return rule.category;
+        }
+        return null;
+    }
+
+    List<RuleStats> stats() {
+        List<RuleStats> stats = new ArrayList<>(rules.length + 1);
+        for (Rule rule : rules) {
+            stats.add(new RuleStats(rule.name, rule.category, rule.evaluations.sum(), rule.hits.sum(), rule.nanos.sum()));
+        }
+        stats.add(new RuleStats("(default)", defaultCategory, defaultHits.sum(), defaultHits.sum(), 0));
+        return stats;
+    }
+
+    int ruleCount() {
+        return rules.length;
+    }
+
+    /**
+     * The label keyword groups that occur in the email's labels, as a bit set.
+     */
+    int labelGroups(Email email) {
+        return matchLabels(email);
+    }
+
+    private int matchSender(Email email) {
+        return email.getFrom() != null ? matchers[SENDER].match(email.getFrom()) : 0;
+    }
+
+    private int matchLabels(Email email) {
+        return email.getLabelIds() != null ? matchers[LABELS].match(email.getLabelIds()) : 0;
+    }
+
+    private int matchText(Email email, CharSequence bodyHead, CharSequence bodyTail) {
+        KeywordMatcher matcher = matchers[TEXT];
+        long progress = matcher.feed(feedHeaderText(email), ' ');
+        if (bodyHead != null) {
+            progress = matcher.feed(progress, bodyHead);
+        }
+        if (bodyTail != null && bodyTail.length() > 0) {
+            progress = matcher.feed(matcher.feed(progress, ' '), bodyTail);
+        }
+        return KeywordMatcher.found(progress);
+    }
+
+    private long feedHeaderText(Email email) {
+        KeywordMatcher matcher = matchers[TEXT];
+        long progress = KeywordMatcher.START;
+        if (email.getSubject() != null) {
+            progress = matcher.feed(progress, email.getSubject());
+        }
+        progress = matcher.feed(progress, ' ');
+        if (email.getSnippet() != null) {
+            progress = matcher.feed(progress, email.getSnippet());
+        }
+        return progress;
+    }
+}
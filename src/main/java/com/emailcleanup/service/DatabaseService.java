@@ -1,20 +1,40 @@
 package com.emailcleanup.service;
 
 import com.emailcleanup.model.Email;
+import com.emailcleanup.model.ScanCheckpoint;
+import com.emailcleanup.model.SenderActivity;
 import com.emailcleanup.model.SenderStats;
+import com.emailcleanup.model.UnsubscribeOutcome;
+import com.emailcleanup.service.SenderRollupDelta.Change;
+import com.emailcleanup.service.SenderRollupDelta.Contribution;
+import com.emailcleanup.service.SenderRollupDelta.Key;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.math.BigInteger;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public class DatabaseService {
     private static final Logger logger = LoggerFactory.getLogger(DatabaseService.class);
     private static final String DB_URL = "jdbc:h2:~/.smart-email-cleanup/emaildb";
     private static final String DB_USER = "sa";
     private static final String DB_PASSWORD = "";
+    private static final String HISTORY_ID_KEY = "gmail.history_id";
+    // Largest IN list sent in one query
+    private static final int MAX_IN_PARAMETERS = 1_000;
     
     private static DatabaseService instance;
     private Connection connection;
@@ -33,6 +53,10 @@ public class DatabaseService {
         logger.info("Initializing database");
         connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
         createTables();
+        if (isSenderRollupMissing()) {
+            logger.info("Building sender rollup from stored emails");
+            rebuildSenderRollup();
+        }
         logger.info("Database initialized successfully");
     }
 
@@ -50,30 +74,109 @@ public class DatabaseService {
                 category VARCHAR(50),
                 has_unsubscribe BOOLEAN,
                 unsubscribe_url TEXT,
+                one_click_unsubscribe BOOLEAN DEFAULT FALSE,
                 is_read BOOLEAN,
                 label_ids VARCHAR(500),
+                body_length INT DEFAULT 0,
+                link_count INT DEFAULT 0,
+                text_features INT DEFAULT 0,
+                feature_signature INT DEFAULT 0,
                 created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
             )
         """;
 
+        // Columns added after the first release, for databases created before them
+        String migrateEmailsTable = """
+            ALTER TABLE emails ADD COLUMN IF NOT EXISTS one_click_unsubscribe BOOLEAN DEFAULT FALSE;
+            ALTER TABLE emails ADD COLUMN IF NOT EXISTS body_length INT DEFAULT 0;
+            ALTER TABLE emails ADD COLUMN IF NOT EXISTS link_count INT DEFAULT 0;
+            ALTER TABLE emails ADD COLUMN IF NOT EXISTS text_features INT DEFAULT 0;
+            ALTER TABLE emails ADD COLUMN IF NOT EXISTS feature_signature INT DEFAULT 0;
+        """;
+
         String createIndexes = """
             CREATE INDEX IF NOT EXISTS idx_from_email ON emails(from_email);
             CREATE INDEX IF NOT EXISTS idx_category ON emails(category);
             CREATE INDEX IF NOT EXISTS idx_email_date ON emails(email_date);
         """;
 
+        String createSyncStateTable = """
+            CREATE TABLE IF NOT EXISTS sync_state (
+                name VARCHAR(100) PRIMARY KEY,
+                state_value VARCHAR(500),
+                updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+            )
+        """;
+
+        String createScanCheckpointTables = """
+            CREATE TABLE IF NOT EXISTS scan_checkpoint (
+                scan_id VARCHAR(36) PRIMARY KEY,
+                status VARCHAR(20),
+                max_results INT,
+                page_token VARCHAR(500),
+                start_history_id VARCHAR(50),
+                completed_count INT,
+                failed_count INT DEFAULT 0,
+                listing_complete BOOLEAN DEFAULT FALSE,
+                refresh_labels BOOLEAN DEFAULT FALSE,
+                started_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+            );
+            CREATE TABLE IF NOT EXISTS scan_fetched_ids (
+                scan_id VARCHAR(36),
+                message_id VARCHAR(255),
+                PRIMARY KEY (scan_id, message_id)
+            );
+        """;
+
+        String createUnsubscribeResultsTable = """
+            CREATE TABLE IF NOT EXISTS unsubscribe_results (
+                sender_email VARCHAR(500) PRIMARY KEY,
+                unsubscribe_url TEXT,
+                status VARCHAR(20),
+                http_status INT,
+                detail VARCHAR(1000),
+                attempted_at TIMESTAMP
+            )
+        """;
+
+        // Per sender and category totals, kept in step with emails by every write to it
+        String createSenderRollupTable = """
+            CREATE TABLE IF NOT EXISTS sender_rollup (
+                from_email VARCHAR(500),
+                category VARCHAR(50),
+                from_name VARCHAR(500),
+                email_count INT,
+                total_size BIGINT,
+                unread_count INT,
+                first_date TIMESTAMP,
+                last_date TIMESTAMP,
+                PRIMARY KEY (from_email, category)
+            )
+        """;
+
         try (Statement stmt = connection.createStatement()) {
             stmt.execute(createEmailsTable);
+            stmt.execute(migrateEmailsTable);
             stmt.execute(createIndexes);
+            stmt.execute(createSyncStateTable);
+            stmt.execute(createScanCheckpointTables);
+            stmt.execute(createUnsubscribeResultsTable);
+            stmt.execute(createSenderRollupTable);
         }
     }
 
     public void saveEmail(Email email) throws SQLException {
+        saveEmails(List.of(email), null);
+    }
+
+    private void mergeEmail(Email email) throws SQLException {
         String sql = """
             MERGE INTO emails (id, message_id, from_email, from_name, subject, snippet, 
                               email_date, size_bytes, category, has_unsubscribe, 
-                              unsubscribe_url, is_read, label_ids)
-            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+                              unsubscribe_url, one_click_unsubscribe, is_read, label_ids,
+                              body_length, link_count, text_features, feature_signature)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
         """;
 
         try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
@@ -88,17 +191,43 @@ public class DatabaseService {
             pstmt.setString(9, email.getCategory());
             pstmt.setBoolean(10, email.isHasUnsubscribeLink());
             pstmt.setString(11, email.getUnsubscribeUrl());
-            pstmt.setBoolean(12, email.isRead());
-            pstmt.setString(13, email.getLabelIds());
+            pstmt.setBoolean(12, email.isOneClickUnsubscribe());
+            pstmt.setBoolean(13, email.isRead());
+            pstmt.setString(14, email.getLabelIds());
+            pstmt.setInt(15, email.getBodyLength());
+            pstmt.setInt(16, email.getLinkCount());
+            pstmt.setInt(17, email.getTextFeatures());
+            pstmt.setInt(18, email.getFeatureSignature());
             pstmt.executeUpdate();
         }
     }
 
     public void saveEmails(List<Email> emails) throws SQLException {
+        saveEmails(emails, null);
+    }
+
+    /**
+     * Saves a batch of emails and, if given, the scan checkpoint that covers them in the same
+     * transaction, so a resumed scan never skips an email that was not stored. The sender
+     * rollup is updated in the same transaction.
+     */
+    public synchronized void saveEmails(List<Email> emails, ScanCheckpoint checkpoint) throws SQLException {
         connection.setAutoCommit(false);
         try {
+            List<String> ids = new ArrayList<>(emails.size());
+            for (Email email : emails) {
+                ids.add(email.getId());
+            }
+            Map<String, Contribution> stored = readContributions(ids);
+            SenderRollupDelta delta = new SenderRollupDelta();
             for (Email email : emails) {
-                saveEmail(email);
+                mergeEmail(email);
+                Contribution saved = Contribution.of(email);
+                delta.replace(stored.put(email.getId(), saved), saved);
+            }
+            applySenderRollupDelta(delta);
+            if (checkpoint != null) {
+                saveCheckpoint(checkpoint);
             }
             connection.commit();
         } catch (SQLException e) {
@@ -137,11 +266,14 @@ public class DatabaseService {
         return emails;
     }
 
-    public List<SenderStats> getSenderStats() throws SQLException {
+    /**
+     * Returns one entry per sender and category, largest first, read from the sender rollup so
+     * the cost depends on the number of senders rather than emails.
+     */
+    public synchronized List<SenderStats> getSenderStats() throws SQLException {
         String sql = """
-            SELECT from_email, from_name, COUNT(*) as email_count, SUM(size_bytes) as total_size, category
-            FROM emails
-            GROUP BY from_email, from_name, category
+            SELECT from_email, from_name, email_count, total_size, category
+            FROM sender_rollup
             ORDER BY total_size DESC
         """;
         
@@ -154,17 +286,139 @@ public class DatabaseService {
                 stat.setSenderName(rs.getString("from_name"));
                 stat.setEmailCount(rs.getInt("email_count"));
                 stat.setTotalSizeBytes(rs.getLong("total_size"));
-                stat.setCategory(rs.getString("category"));
+                String category = rs.getString("category");
+                stat.setCategory(category.isEmpty() ? null : category);
                 stats.add(stat);
             }
         }
         return stats;
     }
 
-    public void deleteEmailsByIds(List<String> emailIds) throws SQLException {
-        if (emailIds.isEmpty()) return;
+    /**
+     * Returns per-sender totals for every sender with at least {@code minEmails} stored emails,
+     * summed over the sender's rollup rows so no email rows are read.
+     */
+    public synchronized List<SenderActivity> getSenderActivity(int minEmails) throws SQLException {
+        String sql = """
+            SELECT from_email,
+                   (SELECT n.from_name FROM sender_rollup n WHERE n.from_email = r.from_email
+                    ORDER BY n.last_date DESC LIMIT 1) AS from_name,
+                   SUM(email_count) AS email_count,
+                   SUM(unread_count) AS unread_count,
+                   MAX(last_date) AS last_date,
+                   SUM(total_size) AS total_size
+            FROM sender_rollup r
+            GROUP BY from_email
+            HAVING SUM(email_count) >= ?
+        """;
 
-        StringBuilder sql = new StringBuilder("DELETE FROM emails WHERE id IN (");
+        List<SenderActivity> activity = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setInt(1, minEmails);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Timestamp lastDate = rs.getTimestamp("last_date");
+                    activity.add(new SenderActivity(
+                        rs.getString("from_email"),
+                        rs.getString("from_name"),
+                        rs.getInt("email_count"),
+                        rs.getInt("unread_count"),
+                        lastDate != null ? lastDate.toLocalDateTime() : null,
+                        rs.getLong("total_size")));
+                }
+            }
+        }
+        return activity;
+    }
+
+    /**
+     * Streams every stored email ID to the consumer without materialising the rows.
+     */
+    public synchronized void forEachEmailId(Consumer<String> consumer) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id FROM emails")) {
+            while (rs.next()) {
+                consumer.accept(rs.getString(1));
+            }
+        }
+    }
+
+    /**
+     * Streams every stored email to the consumer, one row at a time.
+     */
+    public synchronized void forEachEmail(Consumer<Email> consumer) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT * FROM emails")) {
+            while (rs.next()) {
+                consumer.accept(mapResultSetToEmail(rs));
+            }
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} stored emails with IDs after {@code afterId}, in ID order, for
+     * walking the whole table in pages. Pass null to start at the beginning.
+     */
+    public synchronized List<Email> getEmailPage(String afterId, int limit) throws SQLException {
+        String sql = afterId == null
+                ? "SELECT * FROM emails ORDER BY id LIMIT ?"
+                : "SELECT * FROM emails WHERE id > ? ORDER BY id LIMIT ?";
+        List<Email> emails = new ArrayList<>(limit);
+
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            int index = 1;
+            if (afterId != null) {
+                pstmt.setString(index++, afterId);
+            }
+            pstmt.setInt(index, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    emails.add(mapResultSetToEmail(rs));
+                }
+            }
+        }
+        return emails;
+    }
+
+    /**
+     * Overwrites the category of already stored emails in one batch.
+     */
+    public synchronized void updateCategories(Map<String, String> categoriesById) throws SQLException {
+        if (categoriesById.isEmpty()) return;
+
+        String sql = "UPDATE emails SET category = ? WHERE id = ?";
+        connection.setAutoCommit(false);
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            Map<String, Contribution> stored = readContributions(categoriesById.keySet());
+            SenderRollupDelta delta = new SenderRollupDelta();
+            for (Map.Entry<String, String> entry : categoriesById.entrySet()) {
+                pstmt.setString(1, entry.getValue());
+                pstmt.setString(2, entry.getKey());
+                pstmt.addBatch();
+                Contribution old = stored.get(entry.getKey());
+                if (old != null) {
+                    delta.replace(old, old.withCategory(entry.getValue()));
+                }
+            }
+            pstmt.executeBatch();
+            applySenderRollupDelta(delta);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Returns the subset of the given IDs that is already stored, using a single query.
+     */
+    public synchronized Set<String> findExistingIds(List<String> emailIds) throws SQLException {
+        Set<String> existing = new HashSet<>();
+        if (emailIds.isEmpty()) return existing;
+
+        StringBuilder sql = new StringBuilder("SELECT id FROM emails WHERE id IN (");
         for (int i = 0; i < emailIds.size(); i++) {
             sql.append("?");
             if (i < emailIds.size() - 1) sql.append(",");
@@ -175,12 +429,218 @@ public class DatabaseService {
             for (int i = 0; i < emailIds.size(); i++) {
                 pstmt.setString(i + 1, emailIds.get(i));
             }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    existing.add(rs.getString(1));
+                }
+            }
+        }
+        return existing;
+    }
+
+    public synchronized void deleteEmailsByIds(List<String> emailIds) throws SQLException {
+        if (emailIds.isEmpty()) return;
+
+        connection.setAutoCommit(false);
+        try {
+            Map<String, Contribution> stored = readContributions(emailIds);
+            SenderRollupDelta delta = new SenderRollupDelta();
+            for (int from = 0; from < emailIds.size(); from += MAX_IN_PARAMETERS) {
+                List<String> chunk = emailIds.subList(from, Math.min(emailIds.size(), from + MAX_IN_PARAMETERS));
+                try (PreparedStatement pstmt = connection.prepareStatement(
+                        "DELETE FROM emails WHERE id IN (" + placeholders(chunk.size()) + ")")) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        pstmt.setString(i + 1, chunk.get(i));
+                    }
+                    pstmt.executeUpdate();
+                }
+            }
+            for (Contribution removed : stored.values()) {
+                delta.remove(removed);
+            }
+            applySenderRollupDelta(delta);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Refreshes only the label-derived columns of an already stored email.
+     */
+    public synchronized void updateEmailLabels(Map<String, List<String>> labelsById) throws SQLException {
+        if (labelsById.isEmpty()) return;
+
+        String sql = "UPDATE emails SET label_ids = ?, is_read = ? WHERE id = ?";
+        connection.setAutoCommit(false);
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            Map<String, Contribution> stored = readContributions(labelsById.keySet());
+            SenderRollupDelta delta = new SenderRollupDelta();
+            for (Map.Entry<String, List<String>> entry : labelsById.entrySet()) {
+                List<String> labels = entry.getValue();
+                boolean read = !labels.contains("UNREAD");
+                pstmt.setString(1, String.join(",", labels));
+                pstmt.setBoolean(2, read);
+                pstmt.setString(3, entry.getKey());
+                pstmt.addBatch();
+                Contribution old = stored.get(entry.getKey());
+                if (old != null) {
+                    delta.replace(old, old.withRead(read));
+                }
+            }
+            pstmt.executeBatch();
+            applySenderRollupDelta(delta);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Returns the most recent scan that was paused or interrupted, or null if there is none.
+     */
+    public ScanCheckpoint findResumableScan() throws SQLException {
+        String sql = """
+            SELECT * FROM scan_checkpoint
+            WHERE status IN (?, ?)
+            ORDER BY updated_at DESC
+            LIMIT 1
+        """;
+
+        ScanCheckpoint checkpoint = null;
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, ScanCheckpoint.STATUS_RUNNING);
+            pstmt.setString(2, ScanCheckpoint.STATUS_PAUSED);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    checkpoint = new ScanCheckpoint();
+                    checkpoint.setScanId(rs.getString("scan_id"));
+                    checkpoint.setStatus(rs.getString("status"));
+                    checkpoint.setMaxResults(rs.getInt("max_results"));
+                    checkpoint.setPageToken(rs.getString("page_token"));
+                    String historyId = rs.getString("start_history_id");
+                    checkpoint.setStartHistoryId(historyId != null ? new BigInteger(historyId) : null);
+                    checkpoint.setCompletedCount(rs.getInt("completed_count"));
+                    checkpoint.setFailedCount(rs.getInt("failed_count"));
+                    checkpoint.setListingComplete(rs.getBoolean("listing_complete"));
+                    checkpoint.setRefreshLabels(rs.getBoolean("refresh_labels"));
+                }
+            }
+        }
+        if (checkpoint == null) {
+            return null;
+        }
+
+        List<String> fetchedIds = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT message_id FROM scan_fetched_ids WHERE scan_id = ?")) {
+            pstmt.setString(1, checkpoint.getScanId());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    fetchedIds.add(rs.getString(1));
+                }
+            }
+        }
+        checkpoint.restorePage(fetchedIds);
+        return checkpoint;
+    }
+
+    /**
+     * Marks every paused or interrupted scan as abandoned so it is no longer offered for resume.
+     */
+    public synchronized void abandonUnfinishedScans() throws SQLException {
+        String sql = "UPDATE scan_checkpoint SET status = ?, updated_at = CURRENT_TIMESTAMP WHERE status IN (?, ?)";
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, ScanCheckpoint.STATUS_ABANDONED);
+            pstmt.setString(2, ScanCheckpoint.STATUS_RUNNING);
+            pstmt.setString(3, ScanCheckpoint.STATUS_PAUSED);
+            pstmt.executeUpdate();
+        }
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DELETE FROM scan_fetched_ids WHERE scan_id NOT IN "
+                    + "(SELECT scan_id FROM scan_checkpoint WHERE status IN ('RUNNING', 'PAUSED'))");
+        }
+    }
+
+    private void saveCheckpoint(ScanCheckpoint checkpoint) throws SQLException {
+        String sql = """
+            MERGE INTO scan_checkpoint (scan_id, status, max_results, page_token, start_history_id,
+                                        completed_count, failed_count, listing_complete, refresh_labels,
+                                        updated_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)
+        """;
+
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, checkpoint.getScanId());
+            pstmt.setString(2, checkpoint.getStatus());
+            pstmt.setInt(3, checkpoint.getMaxResults());
+            pstmt.setString(4, checkpoint.getPageToken());
+            pstmt.setString(5, checkpoint.getStartHistoryId() != null ? checkpoint.getStartHistoryId().toString() : null);
+            pstmt.setInt(6, checkpoint.getCompletedCount());
+            pstmt.setInt(7, checkpoint.getFailedCount());
+            pstmt.setBoolean(8, checkpoint.isListingComplete());
+            pstmt.setBoolean(9, checkpoint.isRefreshLabels());
+            pstmt.executeUpdate();
+        }
+
+        try (PreparedStatement pstmt = connection.prepareStatement("DELETE FROM scan_fetched_ids WHERE scan_id = ?")) {
+            pstmt.setString(1, checkpoint.getScanId());
+            pstmt.executeUpdate();
+        }
+        if (ScanCheckpoint.STATUS_COMPLETED.equals(checkpoint.getStatus())) {
+            return;
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "INSERT INTO scan_fetched_ids (scan_id, message_id) VALUES (?, ?)")) {
+            for (String messageId : checkpoint.getFetchedIds()) {
+                pstmt.setString(1, checkpoint.getScanId());
+                pstmt.setString(2, messageId);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    /**
+     * Returns the Gmail history ID the stored mailbox is in sync with, or null if the
+     * mailbox has never been fully scanned.
+     */
+    public BigInteger getHistoryId() throws SQLException {
+        String value = getSyncState(HISTORY_ID_KEY);
+        return value != null ? new BigInteger(value) : null;
+    }
+
+    public void saveHistoryId(BigInteger historyId) throws SQLException {
+        setSyncState(HISTORY_ID_KEY, historyId != null ? historyId.toString() : null);
+    }
+
+    private String getSyncState(String name) throws SQLException {
+        String sql = "SELECT state_value FROM sync_state WHERE name = ?";
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, name);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private void setSyncState(String name, String value) throws SQLException {
+        String sql = "MERGE INTO sync_state (name, state_value, updated_at) VALUES (?, ?, CURRENT_TIMESTAMP)";
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, name);
+            pstmt.setString(2, value);
             pstmt.executeUpdate();
         }
     }
 
-    public int getTotalEmailCount() throws SQLException {
-        String sql = "SELECT COUNT(*) FROM emails";
+    public synchronized int getTotalEmailCount() throws SQLException {
+        String sql = "SELECT COALESCE(SUM(email_count), 0) FROM sender_rollup";
         try (Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
             if (rs.next()) {
@@ -190,8 +650,8 @@ public class DatabaseService {
         return 0;
     }
 
-    public long getTotalStorageUsed() throws SQLException {
-        String sql = "SELECT SUM(size_bytes) FROM emails";
+    public synchronized long getTotalStorageUsed() throws SQLException {
+        String sql = "SELECT COALESCE(SUM(total_size), 0) FROM sender_rollup";
         try (Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
             if (rs.next()) {
@@ -201,6 +661,302 @@ public class DatabaseService {
         return 0;
     }
 
+    /**
+     * Returns, per sender, the newest stored email with an unsubscribe link, preferring emails
+     * that advertise one-click unsubscribe. Senders without any link are left out.
+     */
+    public synchronized Map<String, Email> findUnsubscribeTargets(List<String> senderEmails) throws SQLException {
+        Map<String, Email> targets = new LinkedHashMap<>();
+        if (senderEmails.isEmpty()) return targets;
+
+        StringBuilder sql = new StringBuilder("SELECT * FROM emails WHERE has_unsubscribe = TRUE AND from_email IN (");
+        for (int i = 0; i < senderEmails.size(); i++) {
+            sql.append("?");
+            if (i < senderEmails.size() - 1) sql.append(",");
+        }
+        sql.append(") ORDER BY one_click_unsubscribe DESC, email_date DESC");
+
+        try (PreparedStatement pstmt = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < senderEmails.size(); i++) {
+                pstmt.setString(i + 1, senderEmails.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    targets.putIfAbsent(rs.getString("from_email"), mapResultSetToEmail(rs));
+                }
+            }
+        }
+        return targets;
+    }
+
+    public synchronized void saveUnsubscribeOutcomes(List<UnsubscribeOutcome> outcomes) throws SQLException {
+        String sql = """
+            MERGE INTO unsubscribe_results (sender_email, unsubscribe_url, status, http_status, detail, attempted_at)
+            VALUES (?, ?, ?, ?, ?, ?)
+        """;
+
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            for (UnsubscribeOutcome outcome : outcomes) {
+                pstmt.setString(1, outcome.getSenderEmail());
+                pstmt.setString(2, outcome.getUrl());
+                pstmt.setString(3, outcome.getStatus().name());
+                pstmt.setInt(4, outcome.getHttpStatus());
+                pstmt.setString(5, outcome.getDetail());
+                pstmt.setTimestamp(6, outcome.getAttemptedAt() != null ? Timestamp.valueOf(outcome.getAttemptedAt()) : null);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    /**
+     * Compares the sender rollup with totals recomputed from the emails table and describes
+     * every row that differs. An empty list means the rollup is consistent. Sender names are
+     * not compared. Reads the whole emails table.
+     */
+    public synchronized List<String> checkSenderRollup() throws SQLException {
+        Map<Key, RollupRow> stored = readRollupRows(null);
+        List<String> problems = new ArrayList<>();
+        for (Map.Entry<Key, Change> entry : aggregateEmails().changes().entrySet()) {
+            Key key = entry.getKey();
+            Change expected = entry.getValue();
+            RollupRow row = stored.remove(key);
+            if (row == null) {
+                problems.add(String.format("%s / %s: missing, expected %d emails", key.sender(), key.category(), expected.count));
+            } else if (row.count() != expected.count || row.bytes() != expected.bytes || row.unread() != expected.unread
+                    || !Objects.equals(row.first(), expected.firstAdded) || !Objects.equals(row.last(), expected.lastAdded)) {
+                problems.add(String.format("%s / %s: has %d emails, %d bytes, %d unread, %s to %s; expected %d, %d, %d, %s to %s",
+                    key.sender(), key.category(), row.count(), row.bytes(), row.unread(), row.first(), row.last(),
+                    expected.count, expected.bytes, expected.unread, expected.firstAdded, expected.lastAdded));
+            }
+        }
+        for (Key key : stored.keySet()) {
+            problems.add(String.format("%s / %s: no such emails stored", key.sender(), key.category()));
+        }
+        return problems;
+    }
+
+    /**
+     * Recomputes the whole sender rollup from the emails table in one transaction.
+     */
+    public synchronized void rebuildSenderRollup() throws SQLException {
+        SenderRollupDelta all = aggregateEmails();
+        connection.setAutoCommit(false);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DELETE FROM sender_rollup");
+            applySenderRollupDelta(all);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        logger.info("Rebuilt sender rollup: {} rows", all.changes().size());
+    }
+
+    /**
+     * One stored sender_rollup row.
+     */
+    private record RollupRow(String name, int count, long bytes, int unread, LocalDateTime first, LocalDateTime last) {
+    }
+
+    private boolean isSenderRollupMissing() throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                 "SELECT (SELECT COUNT(*) FROM sender_rollup) = 0 AND EXISTS (SELECT 1 FROM emails)")) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    /**
+     * Sums every stored email into a delta, as if all were added to an empty rollup.
+     */
+    private SenderRollupDelta aggregateEmails() throws SQLException {
+        SenderRollupDelta all = new SenderRollupDelta();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                 "SELECT from_email, from_name, category, is_read, size_bytes, email_date FROM emails")) {
+            while (rs.next()) {
+                all.add(mapContribution(rs));
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Reads the rollup contribution of each given email that is stored, keyed by ID.
+     */
+    private Map<String, Contribution> readContributions(Collection<String> emailIds) throws SQLException {
+        Map<String, Contribution> contributions = new HashMap<>();
+        List<String> ids = new ArrayList<>(emailIds);
+        for (int from = 0; from < ids.size(); from += MAX_IN_PARAMETERS) {
+            List<String> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_IN_PARAMETERS));
+            String sql = "SELECT id, from_email, from_name, category, is_read, size_bytes, email_date "
+                    + "FROM emails WHERE id IN (" + placeholders(chunk.size()) + ")";
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    pstmt.setString(i + 1, chunk.get(i));
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        contributions.put(rs.getString("id"), mapContribution(rs));
+                    }
+                }
+            }
+        }
+        return contributions;
+    }
+
+    private static Contribution mapContribution(ResultSet rs) throws SQLException {
+        Timestamp date = rs.getTimestamp("email_date");
+        return new Contribution(rs.getString("from_email"), rs.getString("from_name"), rs.getString("category"),
+                rs.getBoolean("is_read"), rs.getLong("size_bytes"), date != null ? date.toLocalDateTime() : null);
+    }
+
+    /**
+     * Reads the rollup rows of the given keys, or all rows if {@code keys} is null.
+     */
+    private Map<Key, RollupRow> readRollupRows(Set<Key> keys) throws SQLException {
+        Map<Key, RollupRow> rows = new HashMap<>();
+        if (keys == null) {
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT * FROM sender_rollup")) {
+                while (rs.next()) {
+                    rows.put(new Key(rs.getString("from_email"), rs.getString("category")), mapRollupRow(rs));
+                }
+            }
+            return rows;
+        }
+
+        Set<String> distinct = new LinkedHashSet<>();
+        for (Key key : keys) {
+            distinct.add(key.sender());
+        }
+        List<String> senders = new ArrayList<>(distinct);
+        for (int from = 0; from < senders.size(); from += MAX_IN_PARAMETERS) {
+            List<String> chunk = senders.subList(from, Math.min(senders.size(), from + MAX_IN_PARAMETERS));
+            String sql = "SELECT * FROM sender_rollup WHERE from_email IN (" + placeholders(chunk.size()) + ")";
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    pstmt.setString(i + 1, chunk.get(i));
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        Key key = new Key(rs.getString("from_email"), rs.getString("category"));
+                        if (keys.contains(key)) {
+                            rows.put(key, mapRollupRow(rs));
+                        }
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static RollupRow mapRollupRow(ResultSet rs) throws SQLException {
+        Timestamp first = rs.getTimestamp("first_date");
+        Timestamp last = rs.getTimestamp("last_date");
+        return new RollupRow(rs.getString("from_name"), rs.getInt("email_count"), rs.getLong("total_size"),
+                rs.getInt("unread_count"), first != null ? first.toLocalDateTime() : null,
+                last != null ? last.toLocalDateTime() : null);
+    }
+
+    /**
+     * Applies a delta to the rollup rows it touches. Must run inside the transaction that
+     * changed the emails, after the change, since rows whose first or last email may have been
+     * removed are recomputed from the emails table.
+     */
+    private void applySenderRollupDelta(SenderRollupDelta delta) throws SQLException {
+        if (delta.isEmpty()) return;
+
+        Map<Key, RollupRow> current = readRollupRows(delta.changes().keySet());
+        List<Key> recompute = new ArrayList<>();
+        String mergeSql = """
+            MERGE INTO sender_rollup (from_email, category, from_name, email_count, total_size,
+                                      unread_count, first_date, last_date)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+        """;
+        try (PreparedStatement merge = connection.prepareStatement(mergeSql);
+             PreparedStatement delete = connection.prepareStatement(
+                 "DELETE FROM sender_rollup WHERE from_email = ? AND category = ?")) {
+            for (Map.Entry<Key, Change> entry : delta.changes().entrySet()) {
+                Key key = entry.getKey();
+                Change change = entry.getValue();
+                RollupRow row = current.get(key);
+                int count = (row != null ? row.count() : 0) + change.count;
+                if (count <= 0) {
+                    delete.setString(1, key.sender());
+                    delete.setString(2, key.category());
+                    delete.addBatch();
+                    continue;
+                }
+
+                LocalDateTime first = earliest(row != null ? row.first() : null, change.firstAdded);
+                LocalDateTime last = latest(row != null ? row.last() : null, change.lastAdded);
+                String name = row == null || change.lastAdded != null && !change.lastAdded.isBefore(last)
+                        ? change.newestName : row.name();
+                if (change.removesEdge(row != null ? row.first() : null, row != null ? row.last() : null)) {
+                    recompute.add(key);
+                }
+                merge.setString(1, key.sender());
+                merge.setString(2, key.category());
+                merge.setString(3, name);
+                merge.setInt(4, count);
+                merge.setLong(5, (row != null ? row.bytes() : 0) + change.bytes);
+                merge.setInt(6, (row != null ? row.unread() : 0) + change.unread);
+                merge.setTimestamp(7, first != null ? Timestamp.valueOf(first) : null);
+                merge.setTimestamp(8, last != null ? Timestamp.valueOf(last) : null);
+                merge.addBatch();
+            }
+            merge.executeBatch();
+            delete.executeBatch();
+        }
+
+        for (Key key : recompute) {
+            recomputeRollupEdges(key);
+        }
+    }
+
+    /**
+     * Recomputes the first and last date and the newest name of one rollup row from its emails.
+     */
+    private void recomputeRollupEdges(Key key) throws SQLException {
+        String match = (key.sender().isEmpty() ? "(from_email = '' OR from_email IS NULL)" : "from_email = ?")
+                + " AND " + (key.category().isEmpty() ? "(category = '' OR category IS NULL)" : "category = ?");
+        String sql = "UPDATE sender_rollup SET "
+                + "first_date = (SELECT MIN(email_date) FROM emails WHERE " + match + "), "
+                + "last_date = (SELECT MAX(email_date) FROM emails WHERE " + match + "), "
+                + "from_name = (SELECT from_name FROM emails WHERE " + match + " ORDER BY email_date DESC LIMIT 1) "
+                + "WHERE from_email = ? AND category = ?";
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            int index = 1;
+            for (int subquery = 0; subquery < 3; subquery++) {
+                if (!key.sender().isEmpty()) {
+                    pstmt.setString(index++, key.sender());
+                }
+                if (!key.category().isEmpty()) {
+                    pstmt.setString(index++, key.category());
+                }
+            }
+            pstmt.setString(index++, key.sender());
+            pstmt.setString(index, key.category());
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static LocalDateTime earliest(LocalDateTime a, LocalDateTime b) {
+        return a == null ? b : b == null || a.isBefore(b) ? a : b;
+    }
+
+    private static LocalDateTime latest(LocalDateTime a, LocalDateTime b) {
+        return a == null ? b : b == null || a.isAfter(b) ? a : b;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+
     private Email mapResultSetToEmail(ResultSet rs) throws SQLException {
         Email email = new Email();
         email.setId(rs.getString("id"));
@@ -215,8 +971,13 @@ public class DatabaseService {
         email.setCategory(rs.getString("category"));
         email.setHasUnsubscribeLink(rs.getBoolean("has_unsubscribe"));
         email.setUnsubscribeUrl(rs.getString("unsubscribe_url"));
+        email.setOneClickUnsubscribe(rs.getBoolean("one_click_unsubscribe"));
         email.setRead(rs.getBoolean("is_read"));
         email.setLabelIds(rs.getString("label_ids"));
+        email.setBodyLength(rs.getInt("body_length"));
+        email.setLinkCount(rs.getInt("link_count"));
+        email.setTextFeatures(rs.getInt("text_features"));
+        email.setFeatureSignature(rs.getInt("feature_signature"));
         return email;
     }
 
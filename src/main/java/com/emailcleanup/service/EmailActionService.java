@@ -1,5 +1,6 @@
 package com.emailcleanup.service;
 
+import com.emailcleanup.service.GmailRateLimiter.Method;
 import com.google.api.services.gmail.Gmail;
 import com.google.api.services.gmail.model.BatchDeleteMessagesRequest;
 import org.slf4j.Logger;
@@ -14,7 +15,13 @@ public class EmailActionService {
     private static final Logger logger = LoggerFactory.getLogger(EmailActionService.class);
     private static EmailActionService instance;
 
+    // Partial-response mask for messages.trash; batchDelete returns an empty body
+    private static final String TRASH_FIELDS = "id";
+
+    private final GmailRateLimiter rateLimiter;
+
     private EmailActionService() {
+        this.rateLimiter = GmailRateLimiter.getInstance();
     }
 
     public static synchronized EmailActionService getInstance() {
@@ -34,12 +41,15 @@ public class EmailActionService {
         String user = "me";
 
         if (emailIds.size() == 1) {
-            service.users().messages().trash(user, emailIds.get(0)).execute();
+            rateLimiter.execute(Method.MESSAGES_TRASH, service.users().messages()
+                    .trash(user, emailIds.get(0))
+                    .setFields(TRASH_FIELDS)::execute);
             logger.info("Moved email to trash: {}", emailIds.get(0));
         } else {
             BatchDeleteMessagesRequest batchRequest = new BatchDeleteMessagesRequest()
                     .setIds(emailIds);
-            service.users().messages().batchDelete(user, batchRequest).execute();
+            rateLimiter.execute(Method.MESSAGES_BATCH_DELETE,
+                    service.users().messages().batchDelete(user, batchRequest)::execute);
             logger.info("Batch deleted {} emails", emailIds.size());
         }
 
@@ -1,39 +1,91 @@
 package com.emailcleanup.service;
 
 import com.emailcleanup.model.Email;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Categorizes emails with the rules in {@code category-rules.json} in the app directory. The
+ * file is created from the bundled defaults on first use and reloaded whenever it changes; a
+ * file that fails to parse or compile is logged and the previous rules stay in effect.
+ *
+ * <p>Optionally, a naive Bayes classifier trained on the stored mailbox is consulted first and
+ * decides whenever it is confident; the rules handle everything else. Senders whose mail keeps
+ * getting the same category are answered from a {@link SenderCategoryCache} without either.
+ */
 public class EmailCategorizerService {
     private static final Logger logger = LoggerFactory.getLogger(EmailCategorizerService.class);
     private static EmailCategorizerService instance;
 
-    private static final List<String> PROMOTIONAL_KEYWORDS = Arrays.asList(
-        "sale", "discount", "offer", "deal", "promotion", "coupon", "save", "free shipping",
-        "limited time", "exclusive", "special offer", "buy now", "shop now", "clearance",
-        "% off", "unsubscribe", "newsletter", "marketing", "advertisement"
-    );
+    private static final String DEFAULT_RULES_RESOURCE = "/category-rules.json";
+    private static final String RULES_FILE_NAME = "category-rules.json";
+    // Editors often write a file in several steps; wait for them to finish before reloading
+    private static final long RELOAD_SETTLE_MILLIS = 200;
+    private static final String MODEL_FILE_NAME = "category-model.bin";
+    // Minimum log-probability lead of the best category, about 20 to 1
+    private static final double CLASSIFIER_MIN_MARGIN = 3.0;
 
-    private static final List<String> SOCIAL_KEYWORDS = Arrays.asList(
-        "liked", "commented", "shared", "followed", "mentioned", "tagged",
-        "notification", "activity", "update from", "friend request", "message from"
-    );
+    /**
+     * Hit counters and evaluation time of one rule since the rules were last loaded.
+     * Evaluation time includes the keyword scans the rule was the first to need.
+     */
+    public record RuleStats(String name, String category, long evaluations, long hits, long totalNanos) {
+        public double averageMicros() {
+            return evaluations == 0 ? 0 : totalNanos / 1e3 / evaluations;
+        }
+    }
 
-    private static final List<String> NEWSLETTER_KEYWORDS = Arrays.asList(
-        "newsletter", "weekly digest", "monthly update", "daily brief",
-        "subscribe", "subscription", "bulletin", "roundup"
-    );
+    /**
+     * Outcome of training the classifier. Accuracy counts only the held-out emails the model
+     * was confident about.
+     */
+    public record ClassifierSummary(int trainingExamples, int heldOutExamples, double heldOutAccuracy) {
+    }
 
-    private static final Pattern EMAIL_PATTERN = Pattern.compile(
-        "noreply|no-reply|donotreply|do-not-reply|notifications|automated|mailer",
-        Pattern.CASE_INSENSITIVE
-    );
+    /**
+     * Sender cache counters: hits were answered from the cache, misses were categorized.
+     */
+    public record SenderCacheStats(long hits, long misses, long senders, long settledSenders, long evictions) {
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final SenderCategoryCache senderCache = new SenderCategoryCache();
+    private final Path rulesFile;
+    private final Path modelFile;
+    private volatile CategoryRules rules;
+    private volatile CategoryClassifier classifier;
+    private volatile boolean classifierEnabled;
+    private final LongAdder classifierEvaluations = new LongAdder();
+    private final LongAdder classifierHits = new LongAdder();
+    private final LongAdder classifierNanos = new LongAdder();
 
     private EmailCategorizerService() {
+        Path appDir = Path.of(System.getProperty("user.home"), ".smart-email-cleanup");
+        this.rulesFile = appDir.resolve(RULES_FILE_NAME);
+        this.modelFile = appDir.resolve(MODEL_FILE_NAME);
+        this.rules = loadInitialRules();
+        loadClassifier();
+        startWatcher();
     }
 
     public static synchronized EmailCategorizerService getInstance() {
@@ -43,71 +95,260 @@ public class EmailCategorizerService {
         return instance;
     }
 
-    public String categorizeEmail(Email email, String htmlBody) {
-        String lowerSubject = email.getSubject() != null ? email.getSubject().toLowerCase() : "";
-        String lowerSnippet = email.getSnippet() != null ? email.getSnippet().toLowerCase() : "";
-        String lowerFrom = email.getFrom() != null ? email.getFrom().toLowerCase() : "";
-        String lowerBody = htmlBody != null ? htmlBody.toLowerCase() : "";
-        
-        String combinedText = lowerSubject + " " + lowerSnippet + " " + lowerBody;
+    /**
+     * Categorizes an email from its subject, snippet, sender, labels and HTML body. Text is
+     * matched case-insensitively where it lies; subject, snippet and body are read as if joined
+     * by single spaces, without building that string. Only the rules scan the whole body for
+     * the email's feature record; mail decided by the sender cache or the classifier gets a
+     * header-only record.
+     */
+    public String categorizeEmail(Email email, CharSequence htmlBody) {
+        return categorizeEmail(email, htmlBody, null);
+    }
 
-        if (email.isHasUnsubscribeLink()) {
-            if (containsKeywords(combinedText, NEWSLETTER_KEYWORDS)) {
-                return "NEWSLETTER";
-            }
-            if (containsKeywords(combinedText, PROMOTIONAL_KEYWORDS)) {
-                return "PROMOTIONAL";
-            }
-            if (containsKeywords(combinedText, SOCIAL_KEYWORDS)) {
-                return "SOCIAL";
-            }
-            return "PROMOTIONAL";
+    /**
+     * Categorizes an email whose body was decoded as a head and a tail window, reading the tail
+     * after the head as if separated by a space, so footer keywords of long mail still count.
+     */
+    public String categorizeEmail(Email email, CharSequence bodyHead, CharSequence bodyTail) {
+        CategoryRules current = rules;
+        String key = SenderCategoryCache.keyOf(email, current.labelGroups(email));
+        String category = key != null ? senderCache.lookup(key) : null;
+        if (category != null) {
+            current.recordHeaderFeatures(email);
+            return category;
         }
 
-        if (EMAIL_PATTERN.matcher(lowerFrom).find()) {
-            if (containsKeywords(combinedText, SOCIAL_KEYWORDS)) {
-                return "SOCIAL";
-            }
-            return "AUTOMATED";
+        category = classify(email);
+        if (category != null) {
+            current.recordHeaderFeatures(email);
+        } else {
+            category = current.categorize(email, bodyHead, bodyTail);
         }
+        if (key != null) {
+            senderCache.record(key, category);
+        }
+        return category;
+    }
 
-        if (containsKeywords(combinedText, PROMOTIONAL_KEYWORDS)) {
-            return "PROMOTIONAL";
+    /**
+     * Categorizes an email from its subject and snippet alone, for scans that have not
+     * downloaded the body. Mail is only decided here when the first rule that applies to it
+     * tests nothing but text keywords and the unsubscribe link, and its keywords already occur
+     * in the header text; everything else returns null and needs the body. A header-only
+     * feature record is written either way.
+     */
+    public String categorizeFromHeaders(Email email) {
+        CategoryRules current = rules;
+        String key = SenderCategoryCache.keyOf(email, current.labelGroups(email));
+        String category = key != null ? senderCache.lookup(key) : null;
+        if (category != null) {
+            current.recordHeaderFeatures(email);
+            return category;
         }
 
-        if (containsKeywords(combinedText, SOCIAL_KEYWORDS)) {
-            return "SOCIAL";
+        category = classify(email);
+        if (category != null) {
+            current.recordHeaderFeatures(email);
+        } else {
+            category = current.categorizeFromHeaders(email);
+        }
+        if (category != null && key != null) {
+            senderCache.record(key, category);
         }
+        return category;
+    }
+
+    /**
+     * Categorizes an email with the rules alone, bypassing the sender cache and the classifier,
+     * for tools that compare the rules with another implementation.
+     */
+    public String categorizeWithRules(Email email, CharSequence htmlBody) {
+        return rules.categorize(email, htmlBody, null);
+    }
+
+    /**
+     * Categorizes a stored email again from its columns and feature record, without the body
+     * and without consulting or updating the sender cache. Returns null when the current rules
+     * cannot be settled without the body; see {@link CategoryRules#recategorize}.
+     */
+    public String recategorizeStored(Email email) {
+        CategoryClassifier model = classifierEnabled ? classifier : null;
+        String category = model != null ? model.classify(email) : null;
+        return category != null ? category : rules.recategorize(email);
+    }
+
+    public Path getRulesFile() {
+        return rulesFile;
+    }
 
-        if (containsKeywords(combinedText, NEWSLETTER_KEYWORDS)) {
-            return "NEWSLETTER";
+    /**
+     * Per-rule statistics in rule order, followed by the default category and, when a model is
+     * loaded, the classifier.
+     */
+    public List<RuleStats> getRuleStats() {
+        List<RuleStats> stats = new ArrayList<>(rules.stats());
+        if (classifier != null) {
+            stats.add(new RuleStats("(classifier)", "*", classifierEvaluations.sum(),
+                    classifierHits.sum(), classifierNanos.sum()));
         }
+        return stats;
+    }
 
-        if (email.getLabelIds() != null) {
-            String labels = email.getLabelIds().toLowerCase();
-            if (labels.contains("spam")) {
-                return "SPAM";
-            }
-            if (labels.contains("promotions") || labels.contains("category_promotions")) {
-                return "PROMOTIONAL";
-            }
-            if (labels.contains("social") || labels.contains("category_social")) {
-                return "SOCIAL";
-            }
-            if (labels.contains("updates") || labels.contains("category_updates")) {
-                return "NEWSLETTER";
+    public SenderCacheStats getSenderCacheStats() {
+        return senderCache.stats();
+    }
+
+    public boolean hasClassifier() {
+        return classifier != null;
+    }
+
+    public boolean isClassifierEnabled() {
+        return classifierEnabled;
+    }
+
+    /**
+     * Turns the trained classifier on or off; it has no effect until a model is trained.
+     */
+    public void setClassifierEnabled(boolean enabled) {
+        this.classifierEnabled = enabled;
+        senderCache.clear();
+    }
+
+    /**
+     * Trains the classifier on every stored email that Gmail has put in a category tab or in
+     * spam, saves the model next to the rule file and enables it.
+     */
+    public ClassifierSummary trainClassifier() throws SQLException, IOException {
+        CategoryClassifier.Trainer trainer = new CategoryClassifier.Trainer();
+        DatabaseService.getInstance().forEachEmail(trainer::accept);
+
+        CategoryClassifier trained = trainer.build(CLASSIFIER_MIN_MARGIN);
+        ClassifierSummary summary = trainer.evaluate(trained);
+        trained.save(modelFile);
+        classifier = trained;
+        classifierEnabled = true;
+        senderCache.clear();
+        logger.info("Trained category classifier: {}", summary);
+        return summary;
+    }
+
+    /**
+     * Reloads the rule file now. The current rules stay in effect if it cannot be read or
+     * compiled.
+     */
+    public void reloadRules() throws IOException {
+        CategoryRules reloaded = CategoryRules.compile(
+                mapper.readValue(rulesFile.toFile(), CategoryRules.Definition.class));
+        rules = reloaded;
+        senderCache.clear();
+        logger.info("Loaded {} categorization rules from {}", reloaded.ruleCount(), rulesFile);
+    }
+
+    private String classify(Email email) {
+        CategoryClassifier model = classifierEnabled ? classifier : null;
+        if (model == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        String category = model.classify(email);
+        classifierNanos.add(System.nanoTime() - start);
+        classifierEvaluations.increment();
+        if (category != null) {
+            classifierHits.increment();
+        }
+        return category;
+    }
+
+    private void loadClassifier() {
+        if (!Files.exists(modelFile)) {
+            return;
+        }
+        try {
+            classifier = CategoryClassifier.load(modelFile);
+            classifierEnabled = true;
+            logger.info("Loaded category classifier from {}", modelFile);
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable category classifier {}", modelFile, e);
+        }
+    }
+
+    private CategoryRules loadInitialRules() {
+        try {
+            if (!Files.exists(rulesFile)) {
+                Files.createDirectories(rulesFile.getParent());
+                try (InputStream in = defaultRules()) {
+                    Files.copy(in, rulesFile);
+                }
+                logger.info("Wrote default categorization rules to {}", rulesFile);
             }
+            CategoryRules loaded = CategoryRules.compile(
+                    mapper.readValue(rulesFile.toFile(), CategoryRules.Definition.class));
+            logger.info("Loaded {} categorization rules from {}", loaded.ruleCount(), rulesFile);
+            return loaded;
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error("Failed to load {}, using the default rules", rulesFile, e);
         }
 
-        return "IMPORTANT";
+        try (InputStream in = defaultRules()) {
+            return CategoryRules.compile(mapper.readValue(in, CategoryRules.Definition.class));
+        } catch (IOException e) {
+            throw new IllegalStateException("Bundled categorization rules are unreadable", e);
+        }
+    }
+
+    private InputStream defaultRules() throws IOException {
+        InputStream in = EmailCategorizerService.class.getResourceAsStream(DEFAULT_RULES_RESOURCE);
+        if (in == null) {
+            throw new IOException("Missing resource " + DEFAULT_RULES_RESOURCE);
+        }
+        return in;
+    }
+
+    private void startWatcher() {
+        Path dir = rulesFile.getParent();
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try {
+            WatchService watcher = FileSystems.getDefault().newWatchService();
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            Thread thread = new Thread(() -> watch(watcher), "category-rules-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        } catch (IOException e) {
+            logger.warn("Cannot watch {} for changes; rules reload only on restart", rulesFile, e);
+        }
     }
 
-    private boolean containsKeywords(String text, List<String> keywords) {
-        for (String keyword : keywords) {
-            if (text.contains(keyword)) {
-                return true;
+    private void watch(WatchService watcher) {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.context() instanceof Path path && path.toString().equals(RULES_FILE_NAME)) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+                if (changed) {
+                    Thread.sleep(RELOAD_SETTLE_MILLIS);
+                    // Drop the events of the same save that arrived while settling
+                    WatchKey pending = watcher.poll();
+                    if (pending != null) {
+                        pending.pollEvents();
+                        pending.reset();
+                    }
+                    try {
+                        reloadRules();
+                    } catch (IOException | IllegalArgumentException e) {
+                        logger.error("Failed to reload {}, keeping the previous rules", rulesFile, e);
+                    }
+                }
             }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
         }
-        return false;
     }
 }
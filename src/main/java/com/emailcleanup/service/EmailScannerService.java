@@ -1,35 +1,109 @@
 package com.emailcleanup.service;
 
 import com.emailcleanup.model.Email;
+import com.emailcleanup.model.ScanCheckpoint;
+import com.emailcleanup.model.ScanResult;
+import com.emailcleanup.service.GmailRateLimiter.Method;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
 import com.google.api.services.gmail.Gmail;
+import com.google.api.services.gmail.model.History;
+import com.google.api.services.gmail.model.HistoryLabelAdded;
+import com.google.api.services.gmail.model.HistoryLabelRemoved;
+import com.google.api.services.gmail.model.HistoryMessageAdded;
+import com.google.api.services.gmail.model.HistoryMessageDeleted;
+import com.google.api.services.gmail.model.ListHistoryResponse;
 import com.google.api.services.gmail.model.ListMessagesResponse;
 import com.google.api.services.gmail.model.Message;
-import com.google.api.services.gmail.model.MessagePart;
-import com.google.api.services.gmail.model.MessagePartHeader;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.sql.SQLException;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 public class EmailScannerService {
     private static final Logger logger = LoggerFactory.getLogger(EmailScannerService.class);
     private static EmailScannerService instance;
+
+    private static final int DEFAULT_PARALLELISM = 8;
+    private static final int SAVE_BATCH_SIZE = 50;
+    private static final long WRITER_FLUSH_INTERVAL_SECONDS = 2;
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final int REPARSE_PAGE_SIZE = 1_000;
+    private static final int METADATA_SAMPLE_SIZE = 100;
+    private static final String RAW_STORE_DIRECTORY = "raw-messages";
+    private static final List<String> METADATA_HEADERS =
+            List.of("Message-ID", "From", "Subject", "List-Unsubscribe", "List-Unsubscribe-Post", "List-Id");
+    private static final List<String> HISTORY_TYPES =
+            List.of("messageAdded", "messageDeleted", "labelAdded", "labelRemoved");
+
+    // Partial-response masks: each Gmail call asks only for the fields this class reads
+    private static final String PROFILE_FIELDS = "historyId";
+    private static final String LIST_FIELDS = "messages/id,nextPageToken";
+    private static final String HISTORY_FIELDS = "history(messagesAdded/message/id,messagesDeleted/message/id,"
+            + "labelsAdded/message(id,labelIds),labelsRemoved/message(id,labelIds)),historyId,nextPageToken";
+    private static final String FULL_MESSAGE_FIELDS =
+            "id,snippet,internalDate,sizeEstimate,labelIds,payload(mimeType,headers,body/data,parts)";
+    private static final String METADATA_MESSAGE_FIELDS =
+            "id,snippet,internalDate,sizeEstimate,labelIds,payload/headers";
+    private static final String LABEL_FIELDS = "id,labelIds";
     
     private final EmailCategorizerService categorizer;
+    private final GmailRateLimiter rateLimiter;
+    private volatile int parallelism = DEFAULT_PARALLELISM;
+    private volatile int batchSize = 1;
+    private volatile ScanMode scanMode = ScanMode.FULL;
+    private volatile boolean pauseRequested;
+    private volatile boolean skipKnownMessages = true;
+    private volatile boolean storeRawMessages;
+    private RawMessageStore rawStore;
 
     private EmailScannerService() {
         this.categorizer = EmailCategorizerService.getInstance();
+        this.rateLimiter = GmailRateLimiter.getInstance();
+    }
+
+    public enum ScanMode {
+        /** Downloads every message with {@code format=full} and decodes its HTML body. */
+        FULL,
+        /**
+         * Downloads headers only and fetches the body, batched, when categorization needs it.
+         * Every fetch costs the same quota whatever its format, so a scan switches to FULL once
+         * most messages turn out to need their body.
+         */
+        METADATA
     }
 
     public static synchronized EmailScannerService getInstance() {
@@ -39,91 +113,996 @@ public class EmailScannerService {
         return instance;
     }
 
-    public void scanEmails(int maxResults, Consumer<String> progressCallback) throws Exception {
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets how many messages are fetched from Gmail at the same time.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets how many {@code messages.get} calls are packed into one Gmail HTTP batch request.
+     * A size of 1 disables batching; Gmail accepts at most 100 calls per batch.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch size must be between 1 and " + MAX_BATCH_SIZE);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public ScanMode getScanMode() {
+        return scanMode;
+    }
+
+    /**
+     * Selects how much of each message is downloaded during a scan.
+     */
+    public void setScanMode(ScanMode scanMode) {
+        this.scanMode = scanMode;
+    }
+
+    public boolean isSkipKnownMessages() {
+        return skipKnownMessages;
+    }
+
+    /**
+     * When enabled (the default), messages already stored in the database are not fetched again.
+     */
+    public void setSkipKnownMessages(boolean skipKnownMessages) {
+        this.skipKnownMessages = skipKnownMessages;
+    }
+
+    public boolean isStoreRawMessages() {
+        return storeRawMessages;
+    }
+
+    /**
+     * When enabled, every message downloaded in full is also kept, compressed, in a local
+     * {@link RawMessageStore}, so {@link #reparseStoredMessages} can parse it again later
+     * without Gmail. Off by default; mail settled from headers alone is never stored.
+     */
+    public void setStoreRawMessages(boolean storeRawMessages) {
+        this.storeRawMessages = storeRawMessages;
+    }
+
+    /**
+     * Parses every stored email again from its kept raw message, on all cores and without
+     * calling Gmail, and saves the result. Labels and read state are taken from the database,
+     * since they may have changed after the message was kept. Emails without a kept message
+     * are counted as skipped and left unchanged.
+     */
+    public ScanResult reparseStoredMessages(Consumer<String> progressCallback) throws IOException, SQLException {
+        RawMessageStore store = rawStore();
+        DatabaseService database = DatabaseService.getInstance();
+        ScanResult result = new ScanResult();
+        long start = System.nanoTime();
+        int processed = 0;
+
+        List<Email> page = database.getEmailPage(null, REPARSE_PAGE_SIZE);
+        while (!page.isEmpty()) {
+            List<FetchOutcome> outcomes = page.parallelStream()
+                    .map(stored -> reparse(store, stored))
+                    .toList();
+            List<Email> reparsed = new ArrayList<>(outcomes.size());
+            for (FetchOutcome outcome : outcomes) {
+                if (outcome.alreadyStored()) {
+                    result.addSkipped();
+                } else if (outcome.email() == null) {
+                    result.addFailure(outcome.messageId());
+                } else {
+                    reparsed.add(outcome.email());
+                }
+            }
+            database.saveEmails(reparsed);
+            result.addSaved(reparsed.size());
+            processed += page.size();
+            progressCallback.accept(String.format("Re-parsed %d emails...", processed));
+
+            page = page.size() == REPARSE_PAGE_SIZE
+                    ? database.getEmailPage(page.get(page.size() - 1).getId(), REPARSE_PAGE_SIZE)
+                    : List.of();
+        }
+
+        result.setProcessed(processed);
+        logger.info("Re-parsed stored messages in {} ms: {}", (System.nanoTime() - start) / 1_000_000, result);
+        progressCallback.accept(String.format("Re-parse complete! Updated %d of %d emails.",
+                result.getSaved(), processed));
+        return result;
+    }
+
+    public ScanResult scanEmails(int maxResults, Consumer<String> progressCallback) throws Exception {
+        return scanEmails(maxResults, false, progressCallback);
+    }
+
+    /**
+     * Brings the local database up to date with the mailbox. A paused or interrupted full scan
+     * is resumed first. Otherwise, if a previous full scan recorded a history ID, only the
+     * changes since then are applied; when {@code forceFullScan} is set or Gmail no longer has
+     * that history, the mailbox is listed from the first page.
+     */
+    public ScanResult scanEmails(int maxResults, boolean forceFullScan,
+                                 Consumer<String> progressCallback) throws Exception {
+        // Cleared here, not when fetching starts, so a pause clicked during setup still counts
+        pauseRequested = false;
         Gmail service = GmailAuthService.getInstance().getGmailService();
         String user = "me";
+        DatabaseService database = DatabaseService.getInstance();
+        boolean historyExpired = false;
+
+        if (forceFullScan) {
+            database.abandonUnfinishedScans();
+        } else {
+            ScanCheckpoint checkpoint = database.findResumableScan();
+            if (checkpoint != null) {
+                return fullScan(service, user, checkpoint, progressCallback);
+            }
+
+            BigInteger historyId = database.getHistoryId();
+            if (historyId != null) {
+                try {
+                    return syncChanges(service, user, historyId, progressCallback);
+                } catch (GoogleJsonResponseException e) {
+                    if (e.getStatusCode() != 404) {
+                        throw e;
+                    }
+                    logger.info("History ID {} has expired, falling back to a full scan", historyId);
+                    historyExpired = true;
+                }
+            }
+        }
+
+        // Taken before listing so that changes made during the scan are replayed by the next sync
+        BigInteger startHistoryId = rateLimiter.execute(Method.GET_PROFILE, () -> service.users()
+                .getProfile(user)
+                .setFields(PROFILE_FIELDS)
+                .execute())
+                .getHistoryId();
+        ScanCheckpoint checkpoint = ScanCheckpoint.start(maxResults, startHistoryId);
+        // Label changes since the expired history ID are lost, so stored messages are re-read
+        checkpoint.setRefreshLabels(historyExpired);
+        return fullScan(service, user, checkpoint, progressCallback);
+    }
+
+    /**
+     * Continues the most recent paused or interrupted full scan from its last checkpoint.
+     */
+    public ScanResult resumeScan(Consumer<String> progressCallback) throws Exception {
+        pauseRequested = false;
+        ScanCheckpoint checkpoint = DatabaseService.getInstance().findResumableScan();
+        if (checkpoint == null) {
+            throw new IllegalStateException("There is no paused scan to resume");
+        }
+        Gmail service = GmailAuthService.getInstance().getGmailService();
+        return fullScan(service, "me", checkpoint, progressCallback);
+    }
+
+    public boolean hasResumableScan() throws SQLException {
+        return DatabaseService.getInstance().findResumableScan() != null;
+    }
 
-        progressCallback.accept("Fetching email list...");
-        logger.info("Starting email scan, max results: {}", maxResults);
+    /**
+     * Asks the running full scan to stop after the messages already being fetched. Its progress
+     * is checkpointed and can be continued with {@link #resumeScan}.
+     */
+    public void pauseScan() {
+        pauseRequested = true;
+    }
+
+    private ScanResult fullScan(Gmail service, String user, ScanCheckpoint checkpoint,
+                                Consumer<String> progressCallback) throws Exception {
+        int maxResults = checkpoint.getMaxResults();
+        String resumeToken = checkpoint.getPageToken();
+        int alreadyProcessed = checkpoint.getProcessedCount();
+        Set<String> alreadyFetched = new HashSet<>(checkpoint.getFetchedIds());
+        int earlierFailures = checkpoint.getFailedCount();
 
-        List<Message> messages = new ArrayList<>();
+        if (alreadyProcessed > 0) {
+            progressCallback.accept(String.format("Resuming scan after %d emails...", alreadyProcessed));
+            logger.info("Resuming scan {}, max results: {}", checkpoint, maxResults);
+        } else {
+            progressCallback.accept("Fetching email list...");
+            logger.info("Starting email scan {}, max results: {}", checkpoint.getScanId(), maxResults);
+        }
+
+        ScanResult result = processMessages(service, user, sink -> {
+            if (checkpoint.isListingComplete()) {
+                return;
+            }
+            String pageToken = resumeToken;
+            do {
+                String currentPageToken = pageToken;
+                ListMessagesResponse response = rateLimiter.execute(Method.MESSAGES_LIST, () -> service.users()
+                        .messages()
+                        .list(user)
+                        .setMaxResults(100L)
+                        .setPageToken(currentPageToken)
+                        .setFields(LIST_FIELDS)
+                        .execute());
+
+                sink.startPage(currentPageToken);
+                if (response.getMessages() != null) {
+                    for (Message message : response.getMessages()) {
+                        if (sink.listed() >= maxResults) {
+                            return;
+                        }
+                        if (!alreadyFetched.contains(message.getId())) {
+                            sink.add(message.getId());
+                        }
+                    }
+                }
+
+                pageToken = response.getNextPageToken();
+                sink.endPage(pageToken);
+            } while (pageToken != null && sink.listed() < maxResults && !pauseRequested);
+        }, alreadyProcessed, checkpoint, progressCallback);
+
+        result.addEarlierFailures(earlierFailures);
+        if (!result.isPaused()) {
+            recordHistoryId(checkpoint.getStartHistoryId(), result);
+        }
+        return result;
+    }
+
+    /**
+     * Applies the mailbox changes recorded since {@code startHistoryId}: new messages are
+     * fetched, deleted ones removed and label changes written without re-fetching.
+     */
+    private ScanResult syncChanges(Gmail service, String user, BigInteger startHistoryId,
+                                   Consumer<String> progressCallback) throws Exception {
+        progressCallback.accept("Fetching mailbox changes...");
+        logger.info("Starting incremental sync from history ID {}", startHistoryId);
+
+        Set<String> added = new LinkedHashSet<>();
+        Set<String> deleted = new HashSet<>();
+        Map<String, List<String>> labelChanges = new HashMap<>();
+        BigInteger latestHistoryId = startHistoryId;
         String pageToken = null;
-        
+
         do {
-            ListMessagesResponse response = service.users().messages()
+            String currentPageToken = pageToken;
+            ListHistoryResponse response = rateLimiter.execute(Method.HISTORY_LIST, () -> service.users()
+                    .history()
                     .list(user)
-                    .setMaxResults(100L)
-                    .setPageToken(pageToken)
-                    .execute();
+                    .setStartHistoryId(startHistoryId)
+                    .setHistoryTypes(HISTORY_TYPES)
+                    .setPageToken(currentPageToken)
+                    .setFields(HISTORY_FIELDS)
+                    .execute());
 
-            if (response.getMessages() != null) {
-                messages.addAll(response.getMessages());
+            if (response.getHistory() != null) {
+                for (History history : response.getHistory()) {
+                    applyHistoryRecord(history, added, deleted, labelChanges);
+                }
+            }
+            if (response.getHistoryId() != null) {
+                latestHistoryId = response.getHistoryId();
             }
-
             pageToken = response.getNextPageToken();
-            progressCallback.accept(String.format("Found %d emails...", messages.size()));
+        } while (pageToken != null);
+
+        added.removeAll(deleted);
+        labelChanges.keySet().removeAll(deleted);
+        labelChanges.keySet().removeAll(added);
+        logger.info("History since {}: {} added, {} deleted, {} relabelled",
+                startHistoryId, added.size(), deleted.size(), labelChanges.size());
 
-            if (messages.size() >= maxResults) {
-                messages = messages.subList(0, maxResults);
-                break;
+        DatabaseService database = DatabaseService.getInstance();
+        database.deleteEmailsByIds(new ArrayList<>(deleted));
+        database.updateEmailLabels(labelChanges);
+
+        ScanResult result = added.isEmpty()
+                ? new ScanResult()
+                : processMessages(service, user, sink -> {
+                    for (String messageId : added) {
+                        sink.add(messageId);
+                    }
+                }, 0, null, progressCallback);
+        if (added.isEmpty()) {
+            progressCallback.accept("Sync complete! No new emails.");
+        }
+        recordHistoryId(latestHistoryId, result);
+        return result;
+    }
+
+    private void applyHistoryRecord(History history, Set<String> added, Set<String> deleted,
+                                    Map<String, List<String>> labelChanges) {
+        if (history.getMessagesAdded() != null) {
+            for (HistoryMessageAdded change : history.getMessagesAdded()) {
+                String messageId = change.getMessage().getId();
+                added.add(messageId);
+                deleted.remove(messageId);
             }
-        } while (pageToken != null);
+        }
+        if (history.getMessagesDeleted() != null) {
+            for (HistoryMessageDeleted change : history.getMessagesDeleted()) {
+                deleted.add(change.getMessage().getId());
+            }
+        }
+        if (history.getLabelsAdded() != null) {
+            for (HistoryLabelAdded change : history.getLabelsAdded()) {
+                putLabels(labelChanges, change.getMessage());
+            }
+        }
+        if (history.getLabelsRemoved() != null) {
+            for (HistoryLabelRemoved change : history.getLabelsRemoved()) {
+                putLabels(labelChanges, change.getMessage());
+            }
+        }
+    }
 
-        logger.info("Found {} emails, processing...", messages.size());
-        processMessages(service, user, messages, progressCallback);
+    private void putLabels(Map<String, List<String>> labelChanges, Message message) {
+        List<String> labels = message.getLabelIds() != null ? message.getLabelIds() : List.of();
+        labelChanges.put(message.getId(), labels);
     }
 
-    private void processMessages(Gmail service, String user, List<Message> messages, 
-                                 Consumer<String> progressCallback) throws Exception {
-        List<Email> emails = new ArrayList<>();
-        AtomicInteger processed = new AtomicInteger(0);
-        int total = messages.size();
+    /**
+     * Stores the history ID for the next incremental sync. Skipped when messages failed, so
+     * that the next scan lists the mailbox again instead of losing them.
+     */
+    private void recordHistoryId(BigInteger historyId, ScanResult result) throws SQLException {
+        if (historyId == null) {
+            return;
+        }
+        if (result.hasFailures()) {
+            logger.warn("{} messages failed, not advancing history ID", result.getFailed());
+            return;
+        }
+        DatabaseService.getInstance().saveHistoryId(historyId);
+    }
 
-        for (Message message : messages) {
+    /**
+     * Runs the scan as a pipeline: a listing thread feeds message IDs, in chunks of
+     * {@code batchSize}, through a bounded queue to a fixed pool of fetch workers. Listing blocks
+     * while the queue is full, at most two chunks per worker are in flight, and results are
+     * consumed in listing order so progress and saving stay sequential.
+     *
+     * <p>Consumed emails are persisted by an {@link AsyncEmailWriter} so fetching never waits on
+     * a commit; a write failure stops the scan and is reported in the result. When a checkpoint
+     * is given, it advances as chunks are consumed and is stored with every saved batch; a pause
+     * request stops listing, drains the in-flight chunks and leaves the checkpoint paused. If the
+     * checkpoint asks for it, the labels of messages found already stored are re-read in batches
+     * of up to {@value #MAX_BATCH_SIZE}, collected across chunks.
+     */
+    private ScanResult processMessages(Gmail service, String user, MessageLister lister,
+                                       int alreadyListed, ScanCheckpoint checkpoint,
+                                       Consumer<String> progressCallback) throws Exception {
+        ScanResult result = new ScanResult();
+        FetchModeSelector modes = new FetchModeSelector(scanMode);
+        int workers = parallelism;
+        ChunkQueue chunks = new ChunkQueue(batchSize, workers * 2, alreadyListed);
+        AtomicReference<Exception> listingFailure = new AtomicReference<>();
+        Thread listingThread = new Thread(() -> {
             try {
-                Email email = fetchAndParseEmail(service, user, message.getId());
-                if (email != null) {
-                    emails.add(email);
+                lister.list(chunks);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                listingFailure.set(e);
+            }
+            chunks.finish();
+        }, "email-list");
+        listingThread.setDaemon(true);
+
+        DatabaseService database = DatabaseService.getInstance();
+        MessageIdBloomFilter knownIds = skipKnownMessages ? loadKnownIds(database) : null;
+        ExecutorService executor = Executors.newFixedThreadPool(workers, fetchThreadFactory());
+        Deque<PendingChunk> inFlight = new ArrayDeque<>();
+        boolean listingDone = false;
+        int processed = 0;
+
+        AsyncEmailWriter writer = new AsyncEmailWriter(database, SAVE_BATCH_SIZE,
+                WRITER_FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        SQLException writeFailure = null;
+        boolean refreshLabels = knownIds != null && checkpoint != null && checkpoint.isRefreshLabels();
+        List<String> storedIds = new ArrayList<>();
+        List<Future<?>> labelRefreshes = new ArrayList<>();
+
+        listingThread.start();
+        try {
+            while (!listingDone || !inFlight.isEmpty()) {
+                if (checkpoint != null && pauseRequested) {
+                    listingDone = true;
+                }
+                while (!listingDone && inFlight.size() < workers * 2) {
+                    Chunk chunk = inFlight.isEmpty() ? chunks.take() : chunks.poll();
+                    if (chunk == null) {
+                        break;
+                    }
+                    if (chunk == ChunkQueue.END) {
+                        // Queued in order, so the listing only counts as finished once every
+                        // chunk before it is consumed
+                        listingDone = true;
+                    }
+                    Future<List<FetchOutcome>> outcomes = chunk.messageIds().isEmpty()
+                            ? CompletableFuture.completedFuture(List.of())
+                            : executor.submit(() -> fetchNewMessages(service, user, chunk.messageIds(),
+                                    modes.mode(), knownIds));
+                    inFlight.add(new PendingChunk(chunk, outcomes));
+                }
+                if (inFlight.isEmpty()) {
+                    continue;
+                }
+
+                PendingChunk pending = inFlight.poll();
+                List<Email> emails = new ArrayList<>();
+                List<String> fetchedIds = new ArrayList<>();
+                for (FetchOutcome outcome : pending.outcomes().get()) {
+                    if (outcome.alreadyStored()) {
+                        result.addSkipped();
+                        fetchedIds.add(outcome.messageId());
+                        if (refreshLabels) {
+                            storedIds.add(outcome.messageId());
+                        }
+                    } else if (outcome.email() != null) {
+                        emails.add(outcome.email());
+                        fetchedIds.add(outcome.messageId());
+                        modes.record(outcome);
+                    } else {
+                        result.addFailure(outcome.messageId());
+                    }
+
+                    processed++;
+                    if (processed % 10 == 0) {
+                        progressCallback.accept(String.format("Processing %d/%d emails...",
+                                processed, chunks.listed() - alreadyListed));
+                    }
                 }
+                if (checkpoint != null) {
+                    Chunk chunk = pending.chunk();
+                    if (chunk.endsListing()) {
+                        checkpoint.finishListing();
+                    } else {
+                        checkpoint.advance(chunk.resumeToken(), chunk.messageIds().size(), fetchedIds);
+                    }
+                }
+                writer.submit(emails, checkpoint != null ? checkpoint.copy() : null);
 
-                int current = processed.incrementAndGet();
-                if (current % 10 == 0 || current == total) {
-                    progressCallback.accept(String.format("Processing %d/%d emails...", current, total));
+                boolean lastChunk = listingDone && inFlight.isEmpty();
+                if (storedIds.size() >= MAX_BATCH_SIZE || (lastChunk && !storedIds.isEmpty())) {
+                    List<String> batchIds = storedIds.subList(0, Math.min(storedIds.size(), MAX_BATCH_SIZE));
+                    List<String> refreshIds = new ArrayList<>(batchIds);
+                    batchIds.clear();
+                    labelRefreshes.add(executor.submit(() -> {
+                        refreshLabels(service, user, refreshIds);
+                        return null;
+                    }));
                 }
+            }
+            for (Future<?> refresh : labelRefreshes) {
+                refresh.get();
+            }
 
-                if (emails.size() >= 50) {
-                    DatabaseService.getInstance().saveEmails(emails);
-                    emails.clear();
+            // A pause that arrives once everything is listed and consumed has nothing left to stop
+            result.setPaused(checkpoint != null && pauseRequested && !checkpoint.isListingComplete());
+            if (checkpoint != null) {
+                if (result.isPaused()) {
+                    checkpoint.setStatus(ScanCheckpoint.STATUS_PAUSED);
+                } else if (listingFailure.get() == null) {
+                    checkpoint.setStatus(ScanCheckpoint.STATUS_COMPLETED);
                 }
+                writer.submit(List.of(), checkpoint.copy());
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Email fetch worker failed", e.getCause());
+        } catch (SQLException e) {
+            writeFailure = e;
+        } finally {
+            try {
+                listingThread.interrupt();
+                inFlight.forEach(pending -> pending.outcomes().cancel(true));
+                executor.shutdownNow();
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            } finally {
+                // Runs even when the scan thread is interrupted, so everything consumed is saved
+                // before a history ID is recorded or the scan is resumed
+                try {
+                    writer.close();
+                } catch (SQLException e) {
+                    writeFailure = e;
+                }
+                result.addSaved(writer.getSaved());
+            }
+        }
+
+        result.setProcessed(processed);
+        if (writeFailure != null) {
+            result.setWriteFailure(writeFailure);
+            progressCallback.accept(String.format("Scan stopped after %d emails: failed to save emails.", processed));
+            logger.error("Email scan stopped by a write failure: {}", result, writeFailure);
+            return result;
+        }
+        if (listingFailure.get() != null) {
+            logger.error("Listing failed after {} emails: {}", processed, result);
+            throw listingFailure.get();
+        }
+        if (result.isPaused()) {
+            progressCallback.accept(String.format("Scan paused after %d emails.", processed));
+            logger.info("Email scan paused: {}", result);
+        } else {
+            progressCallback.accept(String.format("Scan complete! Processed %d emails.", processed));
+            logger.info("Email scan completed: {}", result);
+        }
+        return result;
+    }
+
+    /**
+     * Produces the message IDs of a scan, in the order they should be processed.
+     */
+    @FunctionalInterface
+    private interface MessageLister {
+        void list(ChunkQueue sink) throws Exception;
+    }
+
+    /**
+     * A group of message IDs fetched together, with the listing page token a resumed scan has to
+     * start from once the chunk is stored. Chunks without IDs only mark the end of a page; one
+     * without a next page, like the end of the listing, means nothing is left to list.
+     */
+    private record Chunk(List<String> messageIds, String resumeToken) {
+        boolean endsListing() {
+            return messageIds.isEmpty() && resumeToken == null;
+        }
+    }
+
+    private record PendingChunk(Chunk chunk, Future<List<FetchOutcome>> outcomes) {
+    }
+
+    /**
+     * Groups listed message IDs into fetch chunks and hands them to the scan thread through a
+     * bounded queue, so a large mailbox never has more than a few pages of IDs in memory.
+     * Chunks never span listing pages, so each one knows the page it can be resumed from.
+     */
+    private static final class ChunkQueue {
+        static final Chunk END = new Chunk(List.of(), null);
+
+        private final BlockingQueue<Chunk> queue;
+        private final int chunkSize;
+        private List<String> current;
+        private String pageToken;
+        private volatile int listed;
+
+        ChunkQueue(int chunkSize, int capacity, int alreadyListed) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.chunkSize = chunkSize;
+            this.current = new ArrayList<>(chunkSize);
+            this.listed = alreadyListed;
+        }
+
+        void startPage(String pageToken) {
+            this.pageToken = pageToken;
+        }
+
+        void add(String messageId) throws InterruptedException {
+            current.add(messageId);
+            listed++;
+            if (current.size() >= chunkSize) {
+                flush();
+            }
+        }
+
+        void endPage(String nextPageToken) throws InterruptedException {
+            flush();
+            queue.put(new Chunk(List.of(), nextPageToken));
+            pageToken = nextPageToken;
+        }
+
+        int listed() {
+            return listed;
+        }
+
+        void finish() {
+            try {
+                flush();
+                queue.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Chunk take() throws InterruptedException {
+            return queue.take();
+        }
+
+        Chunk poll() {
+            return queue.poll();
+        }
+
+        private void flush() throws InterruptedException {
+            if (!current.isEmpty()) {
+                queue.put(new Chunk(current, pageToken));
+                current = new ArrayList<>(chunkSize);
+            }
+        }
+    }
+
+    /**
+     * Chooses the format chunks are fetched in, read by a fetch worker when it starts a chunk. A
+     * METADATA scan counts how many of its first {@value #METADATA_SAMPLE_SIZE} fetched messages,
+     * in listing order, had to be fetched again for their body, and switches to FULL for the rest
+     * of the scan once more than half did: every fetch costs the same quota whatever its format,
+     * so those messages cost twice as much as a FULL fetch.
+     */
+    private static final class FetchModeSelector {
+        private volatile ScanMode mode;
+        private int sampled;
+        private int refetched;
+
+        FetchModeSelector(ScanMode mode) {
+            this.mode = mode;
+        }
+
+        ScanMode mode() {
+            return mode;
+        }
+
+        /**
+         * Counts a fetched message; called by the scan thread only.
+         */
+        void record(FetchOutcome outcome) {
+            if (mode != ScanMode.METADATA || sampled >= METADATA_SAMPLE_SIZE) {
+                return;
+            }
+            sampled++;
+            if (outcome.refetched()) {
+                refetched++;
+            }
+            if (sampled == METADATA_SAMPLE_SIZE && refetched * 2 > sampled) {
+                logger.info("{} of the first {} messages needed their body, switching to full fetches",
+                        refetched, sampled);
+                mode = ScanMode.FULL;
+            }
+        }
+    }
+
+    private MessageIdBloomFilter loadKnownIds(DatabaseService database) throws SQLException {
+        MessageIdBloomFilter knownIds = new MessageIdBloomFilter(database.getTotalEmailCount());
+        database.forEachEmailId(knownIds::add);
+        return knownIds;
+    }
+
+    /**
+     * Fetches the messages of a chunk that are not stored yet. IDs the Bloom filter may know are
+     * confirmed with one batched existence query and are not downloaded again.
+     */
+    private List<FetchOutcome> fetchNewMessages(Gmail service, String user, List<String> messageIds,
+                                                ScanMode mode, MessageIdBloomFilter knownIds)
+            throws SQLException {
+        if (knownIds == null) {
+            return fetchChunk(service, user, messageIds, mode);
+        }
+
+        List<String> candidates = new ArrayList<>();
+        for (String messageId : messageIds) {
+            if (knownIds.mightContain(messageId)) {
+                candidates.add(messageId);
+            }
+        }
+        Set<String> stored = candidates.isEmpty()
+                ? Set.of()
+                : DatabaseService.getInstance().findExistingIds(candidates);
+        if (stored.isEmpty()) {
+            return fetchChunk(service, user, messageIds, mode);
+        }
+        List<String> missing = new ArrayList<>(messageIds.size() - stored.size());
+        for (String messageId : messageIds) {
+            if (!stored.contains(messageId)) {
+                missing.add(messageId);
+            }
+        }
+        Iterator<FetchOutcome> fetched = missing.isEmpty()
+                ? Collections.emptyIterator()
+                : fetchChunk(service, user, missing, mode).iterator();
+
+        List<FetchOutcome> outcomes = new ArrayList<>(messageIds.size());
+        for (String messageId : messageIds) {
+            outcomes.add(stored.contains(messageId)
+                    ? new FetchOutcome(messageId, null, true)
+                    : fetched.next());
+        }
+        return outcomes;
+    }
+
+    /**
+     * Re-reads the labels of stored messages in one batch of {@code format=minimal} calls and
+     * writes them back. A message whose call fails keeps its stored labels until the next scan.
+     */
+    private void refreshLabels(Gmail service, String user, List<String> messageIds) throws SQLException {
+        Map<String, List<String>> labels = new HashMap<>();
+        AtomicBoolean throttled = new AtomicBoolean();
+        try {
+            BatchRequest batch = service.batch();
+            for (String messageId : messageIds) {
+                service.users().messages().get(user, messageId)
+                        .setFormat("minimal")
+                        .setFields(LABEL_FIELDS)
+                        .queue(batch, new JsonBatchCallback<Message>() {
+                            @Override
+                            public void onSuccess(Message message, HttpHeaders responseHeaders) {
+                                List<String> labelIds = message.getLabelIds();
+                                labels.put(messageId, labelIds != null ? labelIds : List.of());
+                            }
+
+                            @Override
+                            public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                                if (GmailRateLimiter.isRetryable(error.getCode(), error)) {
+                                    throttled.set(true);
+                                }
+                                logger.debug("Label refresh of {} failed ({} {})",
+                                        messageId, error.getCode(), error.getMessage());
+                            }
+                        });
+            }
+            rateLimiter.acquire(Method.MESSAGES_GET.getCost() * batch.size());
+            batch.execute();
+        } catch (IOException e) {
+            logger.warn("Label refresh of {} stored messages failed", messageIds.size(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (throttled.get()) {
+            rateLimiter.recordRateLimited(1);
+        }
+        DatabaseService.getInstance().updateEmailLabels(labels);
+    }
+
+    private List<FetchOutcome> fetchChunk(Gmail service, String user, List<String> messageIds,
+                                          ScanMode mode) {
+        if (messageIds.size() > 1) {
+            return fetchBatch(service, user, messageIds, mode);
+        }
+        List<FetchOutcome> outcomes = new ArrayList<>(messageIds.size());
+        for (String messageId : messageIds) {
+            outcomes.add(fetchIsolated(service, user, messageId, mode));
+        }
+        return outcomes;
+    }
+
+    /**
+     * Retrieves all messages of a chunk in one multipart HTTP request. Items that fail inside
+     * the batch, or every item if the batch itself fails, are retried one by one. Each inner
+     * call is charged to the rate limiter, and throttled items slow it down once per batch.
+     */
+    private List<FetchOutcome> fetchBatch(Gmail service, String user, List<String> messageIds,
+                                          ScanMode mode) {
+        Map<String, Message> fetched = new HashMap<>();
+        AtomicBoolean throttled = new AtomicBoolean();
+        try {
+            BatchRequest batch = service.batch();
+            for (String messageId : messageIds) {
+                newGetRequest(service, user, messageId, mode).queue(batch, new JsonBatchCallback<Message>() {
+                    @Override
+                    public void onSuccess(Message message, HttpHeaders responseHeaders) {
+                        fetched.put(messageId, message);
+                    }
+
+                    @Override
+                    public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                        if (GmailRateLimiter.isRetryable(error.getCode(), error)) {
+                            throttled.set(true);
+                        }
+                        logger.warn("Batched fetch of {} failed ({} {}), will retry individually",
+                                messageId, error.getCode(), error.getMessage());
+                    }
+                });
+            }
+            rateLimiter.acquire(Method.MESSAGES_GET.getCost() * batch.size());
+            batch.execute();
+        } catch (IOException e) {
+            logger.warn("Batch request for {} messages failed, fetching individually", messageIds.size(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failedOutcomes(messageIds);
+        }
+        if (throttled.get()) {
+            rateLimiter.recordRateLimited(1);
+        }
+
+        List<FetchOutcome> outcomes = new ArrayList<>(messageIds.size());
+        List<String> needBody = new ArrayList<>();
+        for (String messageId : messageIds) {
+            Message message = fetched.get(messageId);
+            if (message == null) {
+                outcomes.add(fetchIsolated(service, user, messageId, mode));
+                continue;
+            }
+            try {
+                Email email = parseEmail(messageId, message, mode);
+                if (email == null) {
+                    needBody.add(messageId);
+                }
+                outcomes.add(email != null ? new FetchOutcome(messageId, email) : null);
             } catch (Exception e) {
-                logger.error("Error processing message: " + message.getId(), e);
+                logger.error("Error parsing message: " + messageId, e);
+                outcomes.add(new FetchOutcome(messageId, null));
+            }
+        }
+        if (needBody.isEmpty()) {
+            return outcomes;
+        }
+
+        // Messages the headers could not settle are fetched again in full, in one more batch
+        Iterator<FetchOutcome> full = fetchChunk(service, user, needBody, ScanMode.FULL).iterator();
+        for (int i = 0; i < outcomes.size(); i++) {
+            if (outcomes.get(i) == null) {
+                outcomes.set(i, full.next().asRefetched());
+            }
+        }
+        return outcomes;
+    }
+
+    private FetchOutcome fetchIsolated(Gmail service, String user, String messageId, ScanMode mode) {
+        try {
+            Email email = fetchAndParseEmail(service, user, messageId, mode);
+            return email != null
+                    ? new FetchOutcome(messageId, email)
+                    : fetchIsolated(service, user, messageId, ScanMode.FULL).asRefetched();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new FetchOutcome(messageId, null);
+        } catch (Exception e) {
+            logger.error("Error processing message: " + messageId, e);
+            return new FetchOutcome(messageId, null);
+        }
+    }
+
+    private static List<FetchOutcome> failedOutcomes(List<String> messageIds) {
+        List<FetchOutcome> outcomes = new ArrayList<>(messageIds.size());
+        for (String messageId : messageIds) {
+            outcomes.add(new FetchOutcome(messageId, null));
+        }
+        return outcomes;
+    }
+
+    private static ThreadFactory fetchThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "email-fetch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Result of fetching one message. {@code refetched} marks a METADATA fetch whose headers
+     * could not settle the message, so it was fetched again in full.
+     */
+    private record FetchOutcome(String messageId, Email email, boolean alreadyStored, boolean refetched) {
+        FetchOutcome(String messageId, Email email, boolean alreadyStored) {
+            this(messageId, email, alreadyStored, false);
+        }
+
+        FetchOutcome(String messageId, Email email) {
+            this(messageId, email, false);
+        }
+
+        FetchOutcome asRefetched() {
+            return new FetchOutcome(messageId, email, alreadyStored, true);
+        }
+    }
+
+    private Gmail.Users.Messages.Get newGetRequest(Gmail service, String user, String messageId,
+                                                   ScanMode mode) throws IOException {
+        Gmail.Users.Messages.Get request = service.users().messages().get(user, messageId);
+        if (mode == ScanMode.METADATA) {
+            return request.setFormat("metadata")
+                    .setMetadataHeaders(METADATA_HEADERS)
+                    .setFields(METADATA_MESSAGE_FIELDS);
+        }
+        return request.setFormat("full").setFields(FULL_MESSAGE_FIELDS);
+    }
+
+    private Email fetchAndParseEmail(Gmail service, String user, String messageId,
+                                     ScanMode mode) throws IOException, InterruptedException {
+        Message message = rateLimiter.execute(Method.MESSAGES_GET,
+                newGetRequest(service, user, messageId, mode)::execute);
+        return parseEmail(messageId, message, mode);
+    }
+
+    /**
+     * Builds an Email from a fetched message. In {@link ScanMode#METADATA} null is returned when
+     * the headers cannot settle the category or carry no List-Unsubscribe link, and the message
+     * has to be fetched again in full.
+     */
+    private Email parseEmail(String messageId, Message message, ScanMode mode) {
+        MessageHeaders headers = MessageHeaders.of(message.getPayload());
+        Email email = parseHeaders(messageId, message, headers);
+
+        if (mode == ScanMode.METADATA) {
+            if (parseListUnsubscribe(email, headers)) {
+                String category = categorizer.categorizeFromHeaders(email);
+                if (category != null) {
+                    email.setCategory(category);
+                    return email;
+                }
             }
+            return null;
         }
 
-        if (!emails.isEmpty()) {
-            DatabaseService.getInstance().saveEmails(emails);
+        if (storeRawMessages) {
+            keepRawMessage(messageId, message);
         }
+        parseBody(email, headers, message);
+        return email;
+    }
+
+    /**
+     * Completes an Email from the body of a full-format message: unsubscribe link, body
+     * features and category.
+     */
+    private void parseBody(Email email, MessageHeaders headers, Message message) {
+        MessageBody body = MessageBody.of(message.getPayload());
+        parseUnsubscribeInfo(email, headers, body);
+        email.setBodyLength(body.length());
+        email.setLinkCount(body.linkCount());
+        
+        String category = categorizer.categorizeEmail(email, body.head(), body.tail());
+        email.setCategory(category);
+    }
+
+    /**
+     * Parses one kept message. A stored email with no kept message comes back as already
+     * stored, one that fails to parse without an email.
+     */
+    private FetchOutcome reparse(RawMessageStore store, Email stored) {
+        try {
+            Message message = store.get(stored.getId());
+            if (message == null) {
+                return new FetchOutcome(stored.getId(), null, true);
+            }
+            MessageHeaders headers = MessageHeaders.of(message.getPayload());
+            Email email = parseHeaders(stored.getId(), message, headers);
+            email.setLabelIds(stored.getLabelIds());
+            email.setRead(stored.isRead());
+            parseBody(email, headers, message);
+            return new FetchOutcome(stored.getId(), email);
+        } catch (Exception e) {
+            logger.error("Error re-parsing message: " + stored.getId(), e);
+            return new FetchOutcome(stored.getId(), null);
+        }
+    }
 
-        progressCallback.accept(String.format("Scan complete! Processed %d emails.", total));
-        logger.info("Email scan completed successfully");
+    private synchronized RawMessageStore rawStore() throws IOException {
+        if (rawStore == null) {
+            rawStore = RawMessageStore.open(Path.of(System.getProperty("user.home"), ".smart-email-cleanup",
+                    RAW_STORE_DIRECTORY));
+        }
+        return rawStore;
     }
 
-    private Email fetchAndParseEmail(Gmail service, String user, String messageId) throws IOException {
-        Message message = service.users().messages()
-                .get(user, messageId)
-                .setFormat("full")
-                .execute();
+    private void keepRawMessage(String messageId, Message message) {
+        try {
+            rawStore().put(messageId, message);
+        } catch (IOException e) {
+            logger.warn("Failed to keep raw message {}", messageId, e);
+        }
+    }
 
+    private Email parseHeaders(String messageId, Message message, MessageHeaders headers) {
         Email email = new Email();
         email.setId(messageId);
-        email.setMessageId(getHeader(message, "Message-ID"));
+        email.setMessageId(headers.messageId());
         email.setSnippet(message.getSnippet());
         
-        String from = getHeader(message, "From");
+        String from = headers.from();
         email.setFrom(extractEmail(from));
         email.setFromName(extractName(from));
         
-        email.setSubject(getHeader(message, "Subject"));
+        email.setSubject(headers.subject());
+        email.setListId(headers.listId());
         
         Long internalDate = message.getInternalDate();
         if (internalDate != null) {
@@ -139,29 +1118,10 @@ public class EmailScannerService {
             email.setLabelIds(String.join(",", message.getLabelIds()));
             email.setRead(!message.getLabelIds().contains("UNREAD"));
         }
-        
-        String htmlBody = getHtmlBody(message.getPayload());
-        parseUnsubscribeInfo(email, message, htmlBody);
-        
-        String category = categorizer.categorizeEmail(email, htmlBody);
-        email.setCategory(category);
 
         return email;
     }
 
-    private String getHeader(Message message, String name) {
-        if (message.getPayload() == null || message.getPayload().getHeaders() == null) {
-            return "";
-        }
-        
-        for (MessagePartHeader header : message.getPayload().getHeaders()) {
-            if (header.getName().equalsIgnoreCase(name)) {
-                return header.getValue();
-            }
-        }
-        return "";
-    }
-
     private String extractEmail(String fromHeader) {
         if (fromHeader == null || fromHeader.isEmpty()) return "";
         
@@ -190,70 +1150,24 @@ public class EmailScannerService {
         return "";
     }
 
-    private String getHtmlBody(MessagePart payload) {
-        if (payload == null) return "";
-        
-        if (payload.getMimeType() != null && payload.getMimeType().equals("text/html")) {
-            if (payload.getBody() != null && payload.getBody().getData() != null) {
-                return new String(payload.getBody().decodeData());
-            }
-        }
-        
-        if (payload.getParts() != null) {
-            for (MessagePart part : payload.getParts()) {
-                String body = getHtmlBody(part);
-                if (!body.isEmpty()) {
-                    return body;
-                }
-            }
+    private boolean parseListUnsubscribe(Email email, MessageHeaders headers) {
+        String url = UnsubscribeLinks.fromListUnsubscribe(headers.listUnsubscribe());
+        if (url != null) {
+            email.setHasUnsubscribeLink(true);
+            email.setUnsubscribeUrl(url);
+            email.setOneClickUnsubscribe(UnsubscribeLinks.isOneClick(headers.listUnsubscribePost()));
+            return true;
         }
-        
-        return "";
+        return false;
     }
 
-    private void parseUnsubscribeInfo(Email email, Message message, String htmlBody) {
-        String listUnsubscribe = getHeader(message, "List-Unsubscribe");
-        if (listUnsubscribe != null && !listUnsubscribe.isEmpty()) {
-            String url = extractUrlFromListUnsubscribe(listUnsubscribe);
-            if (url != null) {
-                email.setHasUnsubscribeLink(true);
-                email.setUnsubscribeUrl(url);
-                return;
-            }
+    private void parseUnsubscribeInfo(Email email, MessageHeaders headers, MessageBody body) {
+        if (parseListUnsubscribe(email, headers)) {
+            return;
         }
-        
-        if (htmlBody != null && !htmlBody.isEmpty()) {
-            try {
-                Document doc = Jsoup.parse(htmlBody);
-                Elements links = doc.select("a[href]");
-                
-                for (Element link : links) {
-                    String text = link.text().toLowerCase();
-                    String href = link.attr("href");
-                    
-                    if (text.contains("unsubscribe") || text.contains("opt out") || 
-                        text.contains("remove") || href.toLowerCase().contains("unsubscribe")) {
-                        email.setHasUnsubscribeLink(true);
-                        email.setUnsubscribeUrl(href);
-                        return;
-                    }
-                }
-            } catch (Exception e) {
-                logger.debug("Error parsing HTML for unsubscribe link", e);
-            }
-        }
-        
-        email.setHasUnsubscribeLink(false);
-    }
 
-    private String extractUrlFromListUnsubscribe(String listUnsubscribe) {
-        if (listUnsubscribe.contains("<http")) {
-            int start = listUnsubscribe.indexOf("<http");
-            int end = listUnsubscribe.indexOf(">", start);
-            if (end != -1) {
-                return listUnsubscribe.substring(start + 1, end);
-            }
-        }
-        return null;
+        String url = UnsubscribeLinks.fromBody(body);
+        email.setHasUnsubscribeLink(url != null);
+        email.setUnsubscribeUrl(url);
     }
 }
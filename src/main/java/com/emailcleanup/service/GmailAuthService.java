@@ -116,6 +116,19 @@ public class GmailAuthService {
         return gmailService;
     }
 
+    /**
+     * Test hook: replaces the client with an unauthenticated one that talks to a local Gmail
+     * stand-in at {@code rootUrl}, so no OAuth flow runs and no credentials are sent.
+     */
+    void useLocalServer(String rootUrl) {
+        gmailService = new Gmail.Builder(new NetHttpTransport(), JSON_FACTORY, null)
+                .setApplicationName(APPLICATION_NAME)
+                .setRootUrl(rootUrl.endsWith("/") ? rootUrl : rootUrl + "/")
+                .build();
+
+        logger.warn("Using local Gmail server at {}", rootUrl);
+    }
+
     public boolean isAuthenticated() {
         return gmailService != null;
     }
@@ -0,0 +1,159 @@
+package com.emailcleanup.service;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket in front of every Gmail API call. Each call reserves the quota units its method
+ * costs; rate-limit responses halve the allowed rate and are retried with exponential backoff
+ * and jitter, while successful calls slowly raise the rate back towards Gmail's per-user limit.
+ */
+public class GmailRateLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(GmailRateLimiter.class);
+    private static GmailRateLimiter instance;
+
+    // Gmail allows 250 quota units per user per second (moving average)
+    private static final double MAX_UNITS_PER_SECOND = 250.0;
+    private static final double MIN_UNITS_PER_SECOND = 10.0;
+    private static final double ADDITIVE_INCREASE = 1.0;
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long BASE_BACKOFF_MILLIS = 1_000;
+    private static final long MAX_BACKOFF_MILLIS = 32_000;
+
+    /**
+     * Gmail methods used by the app with their quota unit cost.
+     */
+    public enum Method {
+        GET_PROFILE(1),
+        HISTORY_LIST(2),
+        MESSAGES_LIST(5),
+        MESSAGES_GET(5),
+        MESSAGES_TRASH(5),
+        MESSAGES_BATCH_DELETE(50);
+
+        private final int cost;
+
+        Method(int cost) {
+            this.cost = cost;
+        }
+
+        public int getCost() {
+            return cost;
+        }
+    }
+
+    @FunctionalInterface
+    public interface GmailCall<T> {
+        T execute() throws IOException;
+    }
+
+    private double unitsPerSecond = MAX_UNITS_PER_SECOND;
+    private double tokens = MAX_UNITS_PER_SECOND;
+    private long lastRefillNanos = System.nanoTime();
+    private long blockedUntilNanos;
+
+    private GmailRateLimiter() {
+    }
+
+    public static synchronized GmailRateLimiter getInstance() {
+        if (instance == null) {
+            instance = new GmailRateLimiter();
+        }
+        return instance;
+    }
+
+    /**
+     * Runs a single Gmail call under the limiter, retrying rate-limit and transient server
+     * errors until it succeeds or {@value #MAX_ATTEMPTS} attempts have been made.
+     */
+    public <T> T execute(Method method, GmailCall<T> call) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            acquire(method.getCost());
+            try {
+                T result = call.execute();
+                recordSuccess();
+                return result;
+            } catch (GoogleJsonResponseException e) {
+                if (!isRetryable(e.getStatusCode(), e.getDetails()) || attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                long backoff = recordRateLimited(attempt);
+                logger.warn("{} throttled ({}), retry {}/{} in {} ms",
+                        method, e.getStatusCode(), attempt, MAX_ATTEMPTS - 1, backoff);
+            }
+        }
+    }
+
+    /**
+     * Blocks until {@code units} quota units are available. Reservations may drive the bucket
+     * negative, which queues later callers behind earlier ones.
+     */
+    public void acquire(int units) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            refill(now);
+            tokens -= units;
+            waitNanos = Math.max(0, blockedUntilNanos - now);
+            if (tokens < 0) {
+                waitNanos = Math.max(waitNanos, (long) (-tokens / unitsPerSecond * 1_000_000_000L));
+            }
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Lowers the allowed rate after a throttled response and pauses all callers for an
+     * exponentially growing, jittered interval. Returns the pause in milliseconds.
+     */
+    public synchronized long recordRateLimited(int attempt) {
+        unitsPerSecond = Math.max(MIN_UNITS_PER_SECOND, unitsPerSecond / 2);
+        tokens = Math.min(tokens, 0);
+
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt - 1, 5));
+        long backoff = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        blockedUntilNanos = Math.max(blockedUntilNanos,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff));
+        return backoff;
+    }
+
+    public synchronized void recordSuccess() {
+        unitsPerSecond = Math.min(MAX_UNITS_PER_SECOND, unitsPerSecond + ADDITIVE_INCREASE);
+    }
+
+    public synchronized double getUnitsPerSecond() {
+        return unitsPerSecond;
+    }
+
+    /**
+     * Returns true for responses that Gmail documents as safe to retry: 429, 403 with a
+     * rate-limit reason, and transient 5xx backend errors.
+     */
+    public static boolean isRetryable(int statusCode, GoogleJsonError error) {
+        if (statusCode == 429 || statusCode == 500 || statusCode == 502 || statusCode == 503) {
+            return true;
+        }
+        if (statusCode == 403 && error != null && error.getErrors() != null) {
+            for (GoogleJsonError.ErrorInfo info : error.getErrors()) {
+                if ("rateLimitExceeded".equals(info.getReason())
+                        || "userRateLimitExceeded".equals(info.getReason())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(unitsPerSecond, tokens + (now - lastRefillNanos) / 1_000_000_000.0 * unitsPerSecond);
+        lastRefillNanos = now;
+    }
+}
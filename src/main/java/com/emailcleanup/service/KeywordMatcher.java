@@ -0,0 +1,174 @@
+package com.emailcleanup.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick automaton over several keyword groups at once. One pass over the text reports,
+ * as a bit mask, which groups have at least one keyword occurring in it, with the same result
+ * as lowercasing the text and calling {@link String#contains} for every lowercase keyword.
+ *
+ * <p>The automaton is compiled into a dense transition table over the distinct keyword
+ * characters. Case folding is part of the character table, so the text is read as it is and
+ * never copied; every character that does not fold to a keyword character falls into a shared
+ * class that can never advance a match.
+ *
+ * <p>Text split over several pieces, such as subject, snippet and body, is matched without
+ * joining them by threading a progress value through {@link #feed(long, CharSequence)}: the
+ * automaton state in the high half and the matched groups in the low half, so nothing is
+ * allocated per call.
+ */
+final class KeywordMatcher {
+    private static final int MAX_GROUPS = 32;
+    private static final int OTHER = 0;
+    // Lowercases to two chars ("i" and a combining dot), so it never equals a single "i"
+    private static final char DOTTED_CAPITAL_I = '\u0130';
+
+    /**
+     * Progress value to start a match with.
+     */
+    static final long START = 0L;
+
+    private final int[] charClass;
+    private final int alphabetSize;
+    private final int[] transitions;
+    private final int[] outputs;
+    private final int allGroups;
+
+    private KeywordMatcher(int[] charClass, int alphabetSize, int[] transitions, int[] outputs, int allGroups) {
+        this.charClass = charClass;
+        this.alphabetSize = alphabetSize;
+        this.transitions = transitions;
+        this.outputs = outputs;
+        this.allGroups = allGroups;
+    }
+
+    /**
+     * Compiles the keyword groups; group {@code i} is reported as bit {@code 1 << i}. Keywords
+     * must be lowercase.
+     */
+    static KeywordMatcher compile(List<List<String>> groups) {
+        if (groups.size() > MAX_GROUPS) {
+            throw new IllegalArgumentException("At most " + MAX_GROUPS + " keyword groups are supported");
+        }
+
+        int[] charClass = new int[Character.MAX_VALUE + 1];
+        int alphabetSize = 1;
+        for (List<String> group : groups) {
+            for (String keyword : group) {
+                for (int i = 0; i < keyword.length(); i++) {
+                    char c = keyword.charAt(i);
+                    if (charClass[c] == OTHER) {
+                        charClass[c] = alphabetSize++;
+                    }
+                }
+            }
+        }
+        // Every char whose lowercase form is a keyword char shares that char's class
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            char lower = Character.toLowerCase((char) c);
+            if (lower != c && c != DOTTED_CAPITAL_I && charClass[c] == OTHER) {
+                charClass[c] = charClass[lower];
+            }
+        }
+
+        // Trie with child links in a growable table, one row of alphabetSize per state
+        List<int[]> children = new ArrayList<>();
+        List<Integer> outputList = new ArrayList<>();
+        children.add(new int[alphabetSize]);
+        outputList.add(0);
+        int allGroups = 0;
+        for (int g = 0; g < groups.size(); g++) {
+            for (String keyword : groups.get(g)) {
+                if (keyword.isEmpty()) {
+                    continue;
+                }
+                int state = 0;
+                for (int i = 0; i < keyword.length(); i++) {
+                    int symbol = charClass[keyword.charAt(i)];
+                    if (children.get(state)[symbol] == 0) {
+                        children.get(state)[symbol] = children.size();
+                        children.add(new int[alphabetSize]);
+                        outputList.add(0);
+                    }
+                    state = children.get(state)[symbol];
+                }
+                outputList.set(state, outputList.get(state) | (1 << g));
+                allGroups |= 1 << g;
+            }
+        }
+
+        int states = children.size();
+        int[] transitions = new int[states * alphabetSize];
+        int[] outputs = new int[states];
+        for (int s = 0; s < states; s++) {
+            outputs[s] = outputList.get(s);
+        }
+
+        // Breadth-first over the trie: fill missing edges from the failure state and merge its
+        // outputs, turning the trie into a deterministic automaton
+        int[] failure = new int[states];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int symbol = 0; symbol < alphabetSize; symbol++) {
+            int child = children.get(0)[symbol];
+            transitions[symbol] = child;
+            if (child != 0) {
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            outputs[state] |= outputs[failure[state]];
+            for (int symbol = 0; symbol < alphabetSize; symbol++) {
+                int child = children.get(state)[symbol];
+                int fallback = transitions[failure[state] * alphabetSize + symbol];
+                if (child != 0) {
+                    failure[child] = fallback;
+                    transitions[state * alphabetSize + symbol] = child;
+                    queue.add(child);
+                } else {
+                    transitions[state * alphabetSize + symbol] = fallback;
+                }
+            }
+        }
+        return new KeywordMatcher(charClass, alphabetSize, transitions, outputs, allGroups);
+    }
+
+    /**
+     * Returns the groups with a keyword occurring in {@code text}.
+     */
+    int match(CharSequence text) {
+        return found(feed(START, text));
+    }
+
+    /**
+     * Continues a match over the next piece of text. Scanning stops early once every group has
+     * matched.
+     */
+    long feed(long progress, CharSequence text) {
+        int state = (int) (progress >>> 32);
+        int found = (int) progress;
+        for (int i = 0, n = text.length(); i < n && found != allGroups; i++) {
+            state = transitions[state * alphabetSize + charClass[text.charAt(i)]];
+            found |= outputs[state];
+        }
+        return ((long) state << 32) | (found & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Continues a match over a single character.
+     */
+    long feed(long progress, char c) {
+        int state = transitions[(int) (progress >>> 32) * alphabetSize + charClass[c]];
+        return ((long) state << 32) | ((progress | outputs[state]) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the groups matched so far by a progress value.
+     */
+    static int found(long progress) {
+        return (int) progress;
+    }
+}
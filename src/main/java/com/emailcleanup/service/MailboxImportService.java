@@ -0,0 +1,581 @@
+package com.emailcleanup.service;
+
+import com.emailcleanup.model.Email;
+import com.emailcleanup.model.ScanResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.mail.Address;
+import javax.mail.BodyPart;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Imports emails from a local mbox file, such as a Google Takeout export, or from a Maildir,
+ * without calling the Gmail API. Files are memory-mapped and messages are parsed as views of
+ * the mapping, on all cores, then categorized and stored like scanned emails.
+ *
+ * <p>Takeout mbox files carry the Gmail message ID in decimal on each "From " separator line and
+ * the message's labels in an X-Gmail-Labels header; both are mapped back to their Gmail API
+ * form so a later Gmail scan recognises imported messages. Body lines quoted mboxrd style, as
+ * ">From " or ">>From ", lose one '>' again.
+ */
+public class MailboxImportService {
+    private static final Logger logger = LoggerFactory.getLogger(MailboxImportService.class);
+    private static MailboxImportService instance;
+
+    // A single mapping is limited to 2 GB, so larger files are mapped in segments. Each segment
+    // overlaps the next by a few bytes so a separator line is never split across two of them.
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final int SEGMENT_OVERLAP = 16;
+    private static final byte[] SEPARATOR = "\nFrom ".getBytes(StandardCharsets.US_ASCII);
+    private static final int MESSAGES_PER_TASK = 256;
+    private static final int SAVE_BATCH_SIZE = 500;
+    private static final int WRITER_FLUSH_INTERVAL_SECONDS = 2;
+    private static final int SNIPPET_LENGTH = 200;
+
+    private final EmailCategorizerService categorizer;
+    private final Session session;
+
+    private MailboxImportService() {
+        this.categorizer = EmailCategorizerService.getInstance();
+        this.session = Session.getInstance(new Properties());
+    }
+
+    public static synchronized MailboxImportService getInstance() {
+        if (instance == null) {
+            instance = new MailboxImportService();
+        }
+        return instance;
+    }
+
+    /**
+     * Imports every message of an mbox file.
+     */
+    public ScanResult importMbox(Path file, Consumer<String> progressCallback)
+            throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            MappedByteBuffer[] segments = mapSegments(channel, size);
+            long[] starts = findMessageStarts(segments, size);
+            logger.info("Found {} messages in {}", starts.length, file);
+            progressCallback.accept(String.format("Importing %d messages from %s...", starts.length, file.getFileName()));
+
+            List<MessageSource> sources = new ArrayList<>(starts.length);
+            for (int i = 0; i < starts.length; i++) {
+                long end = i + 1 < starts.length ? starts[i + 1] : size;
+                sources.add(new MboxSource(channel, segments, starts[i], end));
+            }
+            return importMessages(sources, progressCallback);
+        }
+    }
+
+    /**
+     * Imports every message in the cur and new folders of a Maildir.
+     */
+    public ScanResult importMaildir(Path directory, Consumer<String> progressCallback)
+            throws IOException, InterruptedException {
+        List<MessageSource> sources = new ArrayList<>();
+        for (String folder : List.of("cur", "new")) {
+            Path path = directory.resolve(folder);
+            if (!Files.isDirectory(path)) {
+                continue;
+            }
+            try (Stream<Path> files = Files.list(path)) {
+                files.filter(Files::isRegularFile)
+                        .forEach(message -> sources.add(new MaildirSource(message, folder.equals("new"))));
+            }
+        }
+        logger.info("Found {} messages in {}", sources.size(), directory);
+        progressCallback.accept(String.format("Importing %d messages from %s...", sources.size(), directory.getFileName()));
+        return importMessages(sources, progressCallback);
+    }
+
+    /**
+     * Parses the messages on a pool sized to the machine's cores and hands the results to the
+     * background writer in order, with a bounded number of tasks in flight.
+     */
+    private ScanResult importMessages(List<MessageSource> sources, Consumer<String> progressCallback)
+            throws IOException, InterruptedException {
+        ScanResult result = new ScanResult();
+        int workers = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(workers, importThreadFactory());
+        Deque<Future<List<ImportOutcome>>> inFlight = new ArrayDeque<>();
+        int submitted = 0;
+        int processed = 0;
+
+        AsyncEmailWriter writer = new AsyncEmailWriter(DatabaseService.getInstance(), SAVE_BATCH_SIZE,
+                WRITER_FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        SQLException writeFailure = null;
+        try {
+            while (submitted < sources.size() || !inFlight.isEmpty()) {
+                while (submitted < sources.size() && inFlight.size() < workers * 2) {
+                    List<MessageSource> task = sources.subList(submitted,
+                            Math.min(sources.size(), submitted + MESSAGES_PER_TASK));
+                    inFlight.add(executor.submit(() -> parseAll(task)));
+                    submitted += task.size();
+                }
+
+                List<Email> emails = new ArrayList<>();
+                for (ImportOutcome outcome : inFlight.poll().get()) {
+                    if (outcome.email() != null) {
+                        emails.add(outcome.email());
+                    } else {
+                        result.addFailure(outcome.sourceId());
+                    }
+                    processed++;
+                }
+                writer.submit(emails, null);
+                progressCallback.accept(String.format("Imported %d/%d emails...", processed, sources.size()));
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Mailbox import worker failed", e.getCause());
+        } catch (SQLException e) {
+            writeFailure = e;
+        } finally {
+            try {
+                inFlight.forEach(future -> future.cancel(true));
+                executor.shutdownNow();
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            } finally {
+                try {
+                    writer.close();
+                } catch (SQLException e) {
+                    writeFailure = e;
+                }
+                result.addSaved(writer.getSaved());
+            }
+        }
+
+        result.setProcessed(processed);
+        if (writeFailure != null) {
+            result.setWriteFailure(writeFailure);
+            progressCallback.accept(String.format("Import stopped after %d emails: failed to save emails.", processed));
+            logger.error("Mailbox import stopped by a write failure: {}", result, writeFailure);
+            return result;
+        }
+        progressCallback.accept(String.format("Import complete! Processed %d emails.", processed));
+        logger.info("Mailbox import completed: {}", result);
+        return result;
+    }
+
+    private List<ImportOutcome> parseAll(List<MessageSource> sources) {
+        List<ImportOutcome> outcomes = new ArrayList<>(sources.size());
+        for (MessageSource source : sources) {
+            try {
+                outcomes.add(new ImportOutcome(source.id(), parseMessage(source)));
+            } catch (Exception e) {
+                logger.warn("Failed to import message {}: {}", source.id(), e.getMessage());
+                outcomes.add(new ImportOutcome(source.id(), null));
+            }
+        }
+        return outcomes;
+    }
+
+    private Email parseMessage(MessageSource source) throws IOException, MessagingException {
+        ByteBuffer bytes = source.bytes();
+        String gmailId = source.gmailId(bytes);
+        MimeMessage message = new MimeMessage(session, new MappedMessageStream(bytes));
+
+        Email email = new Email();
+        String messageId = message.getHeader("Message-ID", null);
+        email.setMessageId(messageId != null ? messageId : "");
+        email.setId(gmailId != null ? gmailId : localId(source, messageId));
+
+        setSender(email, message);
+        email.setSubject(message.getSubject() != null ? message.getSubject() : "");
+        email.setListId(MessageHeaders.normalizeListId(message.getHeader("List-Id", null)));
+        if (message.getSentDate() != null) {
+            email.setDate(LocalDateTime.ofInstant(message.getSentDate().toInstant(), ZoneId.systemDefault()));
+        }
+        email.setSizeBytes(bytes.remaining());
+
+        Set<String> labels = labelsOf(message, source);
+        email.setLabelIds(labels.isEmpty() ? null : String.join(",", labels));
+        email.setRead(!labels.contains("UNREAD"));
+
+        Bodies bodies = new Bodies();
+        collectBodies(message, bodies);
+        MessageBody body = MessageBody.ofDecoded(bodies.html);
+        email.setSnippet(snippetOf(bodies.plain != null ? bodies.plain : stripTags(body.head())));
+        email.setBodyLength(body.length());
+        email.setLinkCount(body.linkCount());
+
+        String url = UnsubscribeLinks.fromListUnsubscribe(message.getHeader("List-Unsubscribe", ","));
+        if (url != null) {
+            email.setOneClickUnsubscribe(UnsubscribeLinks.isOneClick(message.getHeader("List-Unsubscribe-Post", null)));
+        } else {
+            url = UnsubscribeLinks.fromBody(body);
+        }
+        email.setHasUnsubscribeLink(url != null);
+        email.setUnsubscribeUrl(url);
+
+        email.setCategory(categorizer.categorizeEmail(email, body.head(), body.tail()));
+        return email;
+    }
+
+    private static void setSender(Email email, MimeMessage message) throws MessagingException {
+        try {
+            Address[] from = message.getFrom();
+            if (from != null && from.length > 0 && from[0] instanceof InternetAddress address) {
+                email.setFrom(address.getAddress() != null ? address.getAddress() : "");
+                email.setFromName(address.getPersonal() != null ? address.getPersonal() : "");
+                return;
+            }
+        } catch (MessagingException e) {
+            logger.debug("Unparseable From header, storing it as is", e);
+        }
+        String raw = message.getHeader("From", null);
+        email.setFrom(raw != null ? raw.trim() : "");
+        email.setFromName("");
+    }
+
+    private static final class Bodies {
+        private String html;
+        private String plain;
+    }
+
+    private static void collectBodies(Part part, Bodies bodies) throws IOException, MessagingException {
+        if (Part.ATTACHMENT.equalsIgnoreCase(part.getDisposition())) {
+            return;
+        }
+        if (bodies.html == null && part.isMimeType("text/html")) {
+            bodies.html = part.getContent().toString();
+        } else if (bodies.plain == null && part.isMimeType("text/plain")) {
+            bodies.plain = part.getContent().toString();
+        } else if (part.isMimeType("multipart/*")) {
+            Multipart multipart = (Multipart) part.getContent();
+            for (int i = 0; i < multipart.getCount() && (bodies.html == null || bodies.plain == null); i++) {
+                BodyPart child = multipart.getBodyPart(i);
+                collectBodies(child, bodies);
+            }
+        }
+    }
+
+    private static String snippetOf(String text) {
+        StringBuilder snippet = new StringBuilder(SNIPPET_LENGTH);
+        boolean space = false;
+        for (int i = 0; i < text.length() && snippet.length() < SNIPPET_LENGTH; i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = snippet.length() > 0;
+            } else {
+                if (space) {
+                    snippet.append(' ');
+                    space = false;
+                }
+                snippet.append(c);
+            }
+        }
+        return snippet.toString();
+    }
+
+    private static String stripTags(String html) {
+        return html.replaceAll("(?is)<(script|style)[^>]*>.*?</\\1>", " ").replaceAll("<[^>]*>", " ");
+    }
+
+    private static String localId(MessageSource source, String messageId) {
+        String key = messageId != null && !messageId.isEmpty() ? messageId : source.id();
+        return "local-" + UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads Gmail labels from the Takeout X-Gmail-Labels header, translated to Gmail API label
+     * IDs, or the seen flag of the source when the header is missing.
+     */
+    private static Set<String> labelsOf(MimeMessage message, MessageSource source) throws MessagingException {
+        Set<String> labels = new LinkedHashSet<>();
+        String header = message.getHeader("X-Gmail-Labels", ",");
+        if (header != null) {
+            for (String name : header.split(",")) {
+                String label = labelId(name.trim());
+                if (!label.isEmpty()) {
+                    labels.add(label);
+                }
+            }
+        } else if (!source.isSeen(message)) {
+            labels.add("UNREAD");
+        }
+        return labels;
+    }
+
+    private static String labelId(String name) {
+        return switch (name) {
+            case "Inbox" -> "INBOX";
+            case "Unread" -> "UNREAD";
+            case "Sent" -> "SENT";
+            case "Starred" -> "STARRED";
+            case "Important" -> "IMPORTANT";
+            case "Spam" -> "SPAM";
+            case "Trash" -> "TRASH";
+            case "Drafts", "Draft" -> "DRAFT";
+            case "Chat", "Opened", "Archived" -> "";
+            default -> name.startsWith("Category ")
+                    ? "CATEGORY_" + name.substring("Category ".length()).toUpperCase().replace(' ', '_')
+                    : name;
+        };
+    }
+
+    private static MappedByteBuffer[] mapSegments(FileChannel channel, long size) throws IOException {
+        int count = (int) Math.max(1, (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        MappedByteBuffer[] segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long base = i * SEGMENT_SIZE;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, base,
+                    Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, size - base));
+        }
+        return segments;
+    }
+
+    /**
+     * Returns the file offsets of all "From " separator lines, in order.
+     */
+    private static long[] findMessageStarts(MappedByteBuffer[] segments, long size) {
+        long[] starts = new long[1024];
+        int count = 0;
+        if (size >= 5 && segments[0].get(0) == 'F' && segments[0].get(1) == 'r' && segments[0].get(2) == 'o'
+                && segments[0].get(3) == 'm' && segments[0].get(4) == ' ') {
+            starts[count++] = 0;
+        }
+
+        for (int s = 0; s < segments.length; s++) {
+            MappedByteBuffer segment = segments[s];
+            long base = s * SEGMENT_SIZE;
+            int owned = (int) Math.min(SEGMENT_SIZE, size - base);
+            int limit = Math.min(owned, segment.limit() - SEPARATOR.length + 1);
+            for (int i = 0; i < limit; i++) {
+                if (segment.get(i) != '\n' || !matchesSeparator(segment, i)) {
+                    continue;
+                }
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = base + i + 1;
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    private static boolean matchesSeparator(ByteBuffer buffer, int offset) {
+        for (int i = 1; i < SEPARATOR.length; i++) {
+            if (buffer.get(offset + i) != SEPARATOR[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ThreadFactory importThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "mailbox-import-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private record ImportOutcome(String sourceId, Email email) {
+    }
+
+    private interface MessageSource {
+        /** Identifies the message in logs and failure lists. */
+        String id();
+
+        /** The raw RFC 822 message, positioned after any mbox separator line. */
+        ByteBuffer bytes() throws IOException;
+
+        /** The Gmail API message ID, if the source records one. */
+        String gmailId(ByteBuffer bytes);
+
+        boolean isSeen(MimeMessage message) throws MessagingException;
+    }
+
+    /**
+     * One message of an mbox file, read from the segment that holds it or, when it straddles two
+     * segments, from a mapping of its own.
+     */
+    private record MboxSource(FileChannel channel, MappedByteBuffer[] segments, long start, long end)
+            implements MessageSource {
+
+        @Override
+        public String id() {
+            return "offset " + start;
+        }
+
+        @Override
+        public ByteBuffer bytes() throws IOException {
+            int index = (int) (start / SEGMENT_SIZE);
+            long base = index * SEGMENT_SIZE;
+            ByteBuffer message;
+            if (end - base <= segments[index].limit()) {
+                message = segments[index].slice((int) (start - base), (int) (end - start));
+            } else {
+                if (end - start > Integer.MAX_VALUE) {
+                    throw new IOException("Message larger than 2 GB at offset " + start);
+                }
+                message = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            }
+            message = unquoteFromLines(message);
+
+            int lineEnd = 0;
+            while (lineEnd < message.limit() && message.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            message.position(Math.min(message.limit(), lineEnd + 1));
+            return message;
+        }
+
+        /**
+         * Takeout separator lines look like "From 1745238011224587329@xxx Mon Apr 21 ...", where
+         * the number is the Gmail message ID in decimal. IDs are unsigned 64-bit values, so
+         * those of 2^63 and above are valid too.
+         */
+        @Override
+        public String gmailId(ByteBuffer bytes) {
+            int i = 5;
+            StringBuilder digits = new StringBuilder(20);
+            for (; i < bytes.position(); i++) {
+                byte b = bytes.get(i);
+                if (b < '0' || b > '9') {
+                    break;
+                }
+                digits.append((char) b);
+            }
+            boolean takeout = digits.length() > 0 && digits.length() <= 20
+                    && i < bytes.position() && bytes.get(i) == '@';
+            if (!takeout) {
+                return null;
+            }
+            try {
+                return Long.toUnsignedString(Long.parseUnsignedLong(digits, 0, digits.length(), 10), 16);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * A message is seen when its Status header has the R flag; without one it is unread.
+         */
+        @Override
+        public boolean isSeen(MimeMessage message) throws MessagingException {
+            String status = message.getHeader("Status", null);
+            return status != null && status.indexOf('R') >= 0;
+        }
+
+        /**
+         * Removes one '>' from every line that starts with one or more of them followed by
+         * "From ". Messages without such lines, nearly all of them, stay views of the mapping;
+         * the others are copied.
+         */
+        private static ByteBuffer unquoteFromLines(ByteBuffer message) {
+            int limit = message.limit();
+            int lineStart = 0;
+            while (lineStart < limit && !isQuotedFrom(message, lineStart)) {
+                lineStart = nextLine(message, lineStart);
+            }
+            if (lineStart >= limit) {
+                return message;
+            }
+
+            byte[] copy = new byte[limit];
+            message.get(0, copy, 0, lineStart);
+            int length = lineStart;
+            while (lineStart < limit) {
+                int lineEnd = nextLine(message, lineStart);
+                int from = isQuotedFrom(message, lineStart) ? lineStart + 1 : lineStart;
+                message.get(from, copy, length, lineEnd - from);
+                length += lineEnd - from;
+                lineStart = lineEnd;
+            }
+            return ByteBuffer.wrap(copy, 0, length);
+        }
+
+        private static boolean isQuotedFrom(ByteBuffer message, int lineStart) {
+            int i = lineStart;
+            while (i < message.limit() && message.get(i) == '>') {
+                i++;
+            }
+            if (i == lineStart || message.limit() - i < SEPARATOR.length - 1) {
+                return false;
+            }
+            for (int j = 1; j < SEPARATOR.length; j++) {
+                if (message.get(i + j - 1) != SEPARATOR[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int nextLine(ByteBuffer message, int lineStart) {
+            int i = lineStart;
+            while (i < message.limit() && message.get(i) != '\n') {
+                i++;
+            }
+            return Math.min(message.limit(), i + 1);
+        }
+    }
+
+    /**
+     * One Maildir file. Messages in "new" are unread; in "cur" the S flag after ":2," marks a
+     * message as seen.
+     */
+    private record MaildirSource(Path file, boolean inNew) implements MessageSource {
+
+        @Override
+        public String id() {
+            return file.toString();
+        }
+
+        @Override
+        public ByteBuffer bytes() throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+
+        @Override
+        public String gmailId(ByteBuffer bytes) {
+            return null;
+        }
+
+        @Override
+        public boolean isSeen(MimeMessage message) {
+            String name = file.getFileName().toString();
+            int info = name.indexOf(":2,");
+            return !inNew && info >= 0 && name.indexOf('S', info) >= 0;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.emailcleanup.service;
+
+import javax.mail.internet.SharedInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Input stream over a region of a memory-mapped mailbox. It implements {@link SharedInputStream}
+ * so JavaMail parses message bodies and MIME parts as views of the mapping rather than copying
+ * them into byte arrays.
+ */
+final class MappedMessageStream extends InputStream implements SharedInputStream {
+    private final ByteBuffer buffer;
+    private int mark;
+
+    /**
+     * Wraps the remaining bytes of {@code region}; positions are relative to its current position.
+     */
+    MappedMessageStream(ByteBuffer region) {
+        this.buffer = region.slice();
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long count) {
+        int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mark = buffer.position();
+    }
+
+    @Override
+    public synchronized void reset() {
+        buffer.position(mark);
+    }
+
+    @Override
+    public long getPosition() {
+        return buffer.position();
+    }
+
+    @Override
+    public InputStream newStream(long start, long end) {
+        ByteBuffer region = buffer.duplicate();
+        region.limit(end < 0 ? buffer.limit() : (int) end);
+        region.position((int) start);
+        return new MappedMessageStream(region);
+    }
+}
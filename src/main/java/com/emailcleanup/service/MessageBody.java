@@ -0,0 +1,190 @@
+package com.emailcleanup.service;
+
+import com.google.api.services.gmail.model.MessagePart;
+import com.google.api.services.gmail.model.MessagePartHeader;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * The HTML body of a message, decoded once in the part's own charset and shared by
+ * categorization and unsubscribe detection. Large bodies are not decoded in full: only a head
+ * window and a tail window are decoded straight from the base64url data, so the text held per
+ * message stays bounded however large the newsletter is. Truncated windows are trimmed to whole
+ * tags so readers never see half a tag at the cut.
+ */
+final class MessageBody {
+    static final MessageBody EMPTY = new MessageBody("", "", false, 0);
+
+    private static final int HEAD_BYTES = 64 * 1024;
+    private static final int TAIL_BYTES = 16 * 1024;
+    private static final int HEAD_CHARS = (HEAD_BYTES + 2) / 3 * 4;
+    private static final int TAIL_CHARS = (TAIL_BYTES + 2) / 3 * 4;
+
+    private final String head;
+    private final String tail;
+    private final boolean truncated;
+    private final int length;
+
+    private MessageBody(String head, String tail, boolean truncated, int length) {
+        this.head = head;
+        this.tail = tail;
+        this.truncated = truncated;
+        this.length = length;
+    }
+
+    /**
+     * Decodes the first text/html part of the message, searching nested parts depth first.
+     */
+    static MessageBody of(MessagePart payload) {
+        MessagePart part = findHtmlPart(payload);
+        if (part == null) {
+            return EMPTY;
+        }
+
+        String data = part.getBody().getData();
+        Charset charset = charsetOf(part);
+        Integer size = part.getBody().getSize();
+        int length = size != null ? size : data.length() / 4 * 3;
+        if (data.length() <= HEAD_CHARS + TAIL_CHARS) {
+            return new MessageBody(decode(data, 0, data.length(), charset), "", false, length);
+        }
+
+        // Base64 decodes in 4-character groups, so both windows start on a group boundary
+        String head = decode(data, 0, HEAD_CHARS, charset);
+        String tail = decode(data, (data.length() - TAIL_CHARS) & ~3, data.length(), charset);
+        return truncated(head, tail, length);
+    }
+
+    /**
+     * Wraps an HTML body that was already decoded elsewhere, keeping the same head and tail
+     * windows as for Gmail bodies.
+     */
+    static MessageBody ofDecoded(String html) {
+        if (html == null || html.isEmpty()) {
+            return EMPTY;
+        }
+        if (html.length() <= HEAD_BYTES + TAIL_BYTES) {
+            return new MessageBody(html, "", false, html.length());
+        }
+        return truncated(html.substring(0, HEAD_BYTES), html.substring(html.length() - TAIL_BYTES), html.length());
+    }
+
+    private static MessageBody truncated(String head, String tail, int length) {
+        int lastTagEnd = head.lastIndexOf('>');
+        if (lastTagEnd >= 0) {
+            head = head.substring(0, lastTagEnd + 1);
+        }
+        int firstTagEnd = tail.indexOf('>');
+        if (firstTagEnd >= 0) {
+            tail = tail.substring(firstTagEnd + 1);
+        }
+        return new MessageBody(head, tail, true, length);
+    }
+
+    /**
+     * The start of the body, or the whole body when it was small enough to decode in full.
+     */
+    String head() {
+        return head;
+    }
+
+    /**
+     * The end of a truncated body, where footers and unsubscribe links usually sit. Empty when
+     * the body was decoded in full.
+     */
+    String tail() {
+        return tail;
+    }
+
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Size of the whole body, including any part between the windows that was not decoded.
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Counts the anchor tags in the decoded windows; links in the undecoded middle of a
+     * truncated body are not counted.
+     */
+    int linkCount() {
+        return countAnchors(head) + countAnchors(tail);
+    }
+
+    private static int countAnchors(String html) {
+        int count = 0;
+        for (int i = html.indexOf('<'); i >= 0 && i + 2 < html.length(); i = html.indexOf('<', i + 1)) {
+            char name = html.charAt(i + 1);
+            if ((name == 'a' || name == 'A') && Character.isWhitespace(html.charAt(i + 2))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static MessagePart findHtmlPart(MessagePart part) {
+        if (part == null) {
+            return null;
+        }
+        if ("text/html".equals(part.getMimeType()) && part.getBody() != null
+                && part.getBody().getData() != null && !part.getBody().getData().isEmpty()) {
+            return part;
+        }
+        if (part.getParts() != null) {
+            for (MessagePart child : part.getParts()) {
+                MessagePart html = findHtmlPart(child);
+                if (html != null) {
+                    return html;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String decode(String data, int start, int end, Charset charset) {
+        return new String(Base64.getUrlDecoder().decode(data.substring(start, end)), charset);
+    }
+
+    /**
+     * Reads the charset parameter of the part's Content-Type header, defaulting to UTF-8 when it
+     * is missing or names a charset the JVM does not support.
+     */
+    private static Charset charsetOf(MessagePart part) {
+        if (part.getHeaders() == null) {
+            return StandardCharsets.UTF_8;
+        }
+        for (MessagePartHeader header : part.getHeaders()) {
+            if ("Content-Type".equalsIgnoreCase(header.getName()) && header.getValue() != null) {
+                return parseCharset(header.getValue());
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private static Charset parseCharset(String contentType) {
+        String lower = contentType.toLowerCase();
+        int index = lower.indexOf("charset=");
+        if (index < 0) {
+            return StandardCharsets.UTF_8;
+        }
+
+        int start = index + "charset=".length();
+        int end = start;
+        while (end < contentType.length() && contentType.charAt(end) != ';'
+                && !Character.isWhitespace(contentType.charAt(end))) {
+            end++;
+        }
+        String name = contentType.substring(start, end).replace("\"", "").replace("'", "");
+        try {
+            return Charset.isSupported(name) ? Charset.forName(name) : StandardCharsets.UTF_8;
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.emailcleanup.service;
+
+import com.google.api.services.gmail.model.MessagePart;
+import com.google.api.services.gmail.model.MessagePartHeader;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The few message headers the scanner reads, extracted in a single pass over the header list.
+ * Names are compared by length first and then case-insensitively in place, so unrelated headers
+ * cost one length check and nothing is allocated. As with a linear lookup, the first occurrence
+ * of a header wins, and a missing header reads as an empty string.
+ */
+public final class MessageHeaders {
+    private static final int WANTED = 6;
+
+    private String messageId;
+    private String from;
+    private String subject;
+    private String listUnsubscribe;
+    private String listUnsubscribePost;
+    private String listId;
+    private int found;
+
+    private MessageHeaders() {
+    }
+
+    public static MessageHeaders of(MessagePart payload) {
+        MessageHeaders headers = new MessageHeaders();
+        if (payload == null || payload.getHeaders() == null) {
+            return headers;
+        }
+
+        List<MessagePartHeader> list = payload.getHeaders();
+        for (int i = 0; i < list.size() && headers.found < WANTED; i++) {
+            headers.accept(list.get(i));
+        }
+        return headers;
+    }
+
+    private void accept(MessagePartHeader header) {
+        String name = header.getName();
+        if (name == null) {
+            return;
+        }
+
+        switch (name.length()) {
+            case 4 -> {
+                if (from == null && name.equalsIgnoreCase("From")) {
+                    from = header.getValue();
+                    found++;
+                }
+            }
+            case 7 -> {
+                if (subject == null && name.equalsIgnoreCase("Subject")) {
+                    subject = header.getValue();
+                    found++;
+                } else if (listId == null && name.equalsIgnoreCase("List-Id")) {
+                    listId = header.getValue();
+                    found++;
+                }
+            }
+            case 10 -> {
+                if (messageId == null && name.equalsIgnoreCase("Message-ID")) {
+                    messageId = header.getValue();
+                    found++;
+                }
+            }
+            case 16 -> {
+                if (listUnsubscribe == null && name.equalsIgnoreCase("List-Unsubscribe")) {
+                    listUnsubscribe = header.getValue();
+                    found++;
+                }
+            }
+            case 21 -> {
+                if (listUnsubscribePost == null && name.equalsIgnoreCase("List-Unsubscribe-Post")) {
+                    listUnsubscribePost = header.getValue();
+                    found++;
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    public String messageId() {
+        return messageId != null ? messageId : "";
+    }
+
+    public String from() {
+        return from != null ? from : "";
+    }
+
+    public String subject() {
+        return subject != null ? subject : "";
+    }
+
+    public String listUnsubscribe() {
+        return listUnsubscribe != null ? listUnsubscribe : "";
+    }
+
+    public String listUnsubscribePost() {
+        return listUnsubscribePost != null ? listUnsubscribePost : "";
+    }
+
+    /**
+     * The list identifier of the List-Id header, without its display phrase, or null.
+     */
+    public String listId() {
+        return normalizeListId(listId);
+    }
+
+    /**
+     * Reduces a List-Id header value such as {@code "Weekly" <weekly.example.com>} to the
+     * lowercase identifier between the angle brackets. Returns null for a missing or empty value.
+     */
+    public static String normalizeListId(String value) {
+        if (value == null) {
+            return null;
+        }
+        int start = value.lastIndexOf('<');
+        int end = value.lastIndexOf('>');
+        String id = start != -1 && end > start ? value.substring(start + 1, end) : value;
+        id = id.trim();
+        return id.isEmpty() ? null : id.toLowerCase(Locale.ROOT);
+    }
+}
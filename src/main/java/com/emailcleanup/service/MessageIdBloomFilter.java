@@ -0,0 +1,53 @@
+package com.emailcleanup.service;
+
+/**
+ * Compact membership filter for Gmail message IDs already stored in the database. A negative
+ * answer is definite; a positive one must be confirmed against the {@code emails} table.
+ * Sized for about a 1% false-positive rate at the expected number of IDs.
+ */
+final class MessageIdBloomFilter {
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int HASH_COUNT = 7;
+
+    private final long[] words;
+    private final long bitCount;
+
+    MessageIdBloomFilter(int expectedEntries) {
+        long bits = Math.max(64, (long) Math.max(expectedEntries, 1) * BITS_PER_ENTRY);
+        this.words = new long[(int) ((bits + 63) >>> 6)];
+        this.bitCount = (long) words.length << 6;
+    }
+
+    synchronized void add(String messageId) {
+        long hash1 = hash(messageId, 0x9E3779B97F4A7C15L);
+        long hash2 = hash(messageId, 0xC2B2AE3D27D4EB4FL) | 1;
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    synchronized boolean mightContain(String messageId) {
+        long hash1 = hash(messageId, 0x9E3779B97F4A7C15L);
+        long hash2 = hash(messageId, 0xC2B2AE3D27D4EB4FL) | 1;
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long hash(String value, long seed) {
+        long h = seed;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
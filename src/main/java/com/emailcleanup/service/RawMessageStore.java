@@ -0,0 +1,328 @@
+package com.emailcleanup.service;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.gmail.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Content-addressed, compressed on-disk store of the Gmail messages a scan downloaded, so the
+ * mailbox can be parsed again without calling the API.
+ *
+ * <p>Messages are kept as their deflated Gmail JSON, labels left out since they change without
+ * the content changing, and addressed by the SHA-256 of that JSON. Storing the same content
+ * again, as a rescan does, writes nothing; a different message ID with identical content only
+ * adds an alias record.
+ *
+ * <p>The data lives in append-only segment files of at most {@value #SEGMENT_LIMIT} bytes. Each
+ * record is a message ID, the content hash, the uncompressed and compressed lengths and the
+ * compressed bytes, so the segments are also the index: opening the store reads the record
+ * headers and rebuilds it, dropping a record cut short by a crash. Reads decompress straight
+ * from a read-only mapping of the segment.
+ */
+final class RawMessageStore implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(RawMessageStore.class);
+
+    private static final JsonFactory JSON_FACTORY = GsonFactory.getDefaultInstance();
+    private static final long SEGMENT_LIMIT = 512L * 1024 * 1024;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final int HASH_BYTES = 32;
+    // ID length, hash, uncompressed length, compressed length
+    private static final int FIXED_HEADER_BYTES = Short.BYTES + HASH_BYTES + Integer.BYTES + Integer.BYTES;
+
+    private static final ThreadLocal<Deflater> DEFLATERS =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(RawMessageStore::sha256);
+
+    /**
+     * Where a content's compressed bytes sit.
+     */
+    private record Location(int segment, long offset, int compressedLength, int rawLength) {
+    }
+
+    /**
+     * Content hash wrapper with value equality, for use as a map key.
+     */
+    private record Hash(byte[] bytes) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Hash other && Arrays.equals(bytes, other.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bytes);
+        }
+    }
+
+    private final Path directory;
+    private final Map<Hash, Location> contents = new ConcurrentHashMap<>();
+    private final Map<String, Hash> messages = new ConcurrentHashMap<>();
+    private final Map<Integer, MappedByteBuffer> mappings = new ConcurrentHashMap<>();
+    private int activeSegment;
+    private FileChannel activeChannel;
+
+    private RawMessageStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the store in the directory, creating it if needed, and indexes its segments.
+     */
+    static RawMessageStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        RawMessageStore store = new RawMessageStore(directory);
+        store.loadSegments();
+        return store;
+    }
+
+    /**
+     * Stores a full-format message under its ID. Compression and hashing run on the calling
+     * thread; only the append is serialized.
+     */
+    void put(String messageId, Message message) throws IOException {
+        Message content = message.clone().setLabelIds(null);
+        byte[] json = JSON_FACTORY.toByteArray(content);
+        Hash hash = new Hash(DIGESTS.get().digest(json));
+        if (hash.equals(messages.get(messageId))) {
+            return;
+        }
+
+        byte[] compressed = contents.containsKey(hash) ? null : deflate(json);
+        synchronized (this) {
+            if (compressed != null && !contents.containsKey(hash)) {
+                append(messageId, hash, json.length, compressed);
+            } else {
+                append(messageId, hash, 0, null);
+            }
+        }
+    }
+
+    /**
+     * Returns the stored message, or null if the ID was never stored. Labels are not stored
+     * and come back empty.
+     */
+    Message get(String messageId) throws IOException {
+        Hash hash = messages.get(messageId);
+        if (hash == null) {
+            return null;
+        }
+        Location location = contents.get(hash);
+        ByteBuffer compressed = mapping(location.segment(), location.offset() + location.compressedLength())
+                .slice((int) location.offset(), location.compressedLength());
+
+        byte[] json = new byte[location.rawLength()];
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            if (inflater.inflate(json) != json.length || !inflater.finished()) {
+                throw new IOException("Stored message " + messageId + " is corrupt");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Stored message " + messageId + " is corrupt", e);
+        }
+        return JSON_FACTORY.fromInputStream(new ByteArrayInputStream(json), StandardCharsets.UTF_8, Message.class);
+    }
+
+    boolean contains(String messageId) {
+        return messages.containsKey(messageId);
+    }
+
+    Set<String> messageIds() {
+        return messages.keySet();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (activeChannel != null) {
+            activeChannel.force(false);
+            activeChannel.close();
+            activeChannel = null;
+        }
+        mappings.clear();
+    }
+
+    private void append(String messageId, Hash hash, int rawLength, byte[] compressed) throws IOException {
+        byte[] id = messageId.getBytes(StandardCharsets.UTF_8);
+        int compressedLength = compressed != null ? compressed.length : 0;
+        ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_BYTES + id.length);
+        header.putShort((short) id.length).put(id).put(hash.bytes()).putInt(rawLength).putInt(compressedLength).flip();
+
+        FileChannel channel = activeChannel();
+        if (channel.size() + header.remaining() + compressedLength > SEGMENT_LIMIT && channel.size() > 0) {
+            channel.force(false);
+            channel.close();
+            activeSegment++;
+            activeChannel = null;
+            channel = activeChannel();
+        }
+
+        long offset = channel.size() + header.remaining();
+        ByteBuffer[] record = compressed != null
+                ? new ByteBuffer[] {header, ByteBuffer.wrap(compressed)}
+                : new ByteBuffer[] {header};
+        while (record[record.length - 1].hasRemaining()) {
+            channel.write(record);
+        }
+        if (compressed != null) {
+            contents.put(hash, new Location(activeSegment, offset, compressedLength, rawLength));
+        }
+        messages.put(messageId, hash);
+    }
+
+    private FileChannel activeChannel() throws IOException {
+        if (activeChannel == null) {
+            activeChannel = FileChannel.open(segmentPath(activeSegment),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return activeChannel;
+    }
+
+    /**
+     * Returns a read-only mapping of the segment covering at least {@code end} bytes, remapping
+     * the active segment once it has grown past its current mapping.
+     */
+    private MappedByteBuffer mapping(int segment, long end) throws IOException {
+        MappedByteBuffer mapped = mappings.get(segment);
+        if (mapped != null && mapped.capacity() >= end) {
+            return mapped;
+        }
+        synchronized (mappings) {
+            mapped = mappings.get(segment);
+            if (mapped == null || mapped.capacity() < end) {
+                try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                mappings.put(segment, mapped);
+            }
+            return mapped;
+        }
+    }
+
+    /**
+     * Walks every segment's record headers to rebuild the index. A record cut short at the end
+     * of the last segment is truncated away so new records follow the last complete one.
+     */
+    private void loadSegments() throws IOException {
+        List<Integer> segments = new ArrayList<>();
+        try (var files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        segments.sort(null);
+
+        for (int segment : segments) {
+            long complete = indexSegment(segment);
+            long size = Files.size(segmentPath(segment));
+            if (complete < size) {
+                logger.warn("Truncating {} bytes of an incomplete record in raw message segment {}",
+                        size - complete, segment);
+                try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.WRITE)) {
+                    channel.truncate(complete);
+                }
+            }
+            activeSegment = segment;
+        }
+        logger.info("Raw message store {} holds {} messages in {} segments",
+                directory, messages.size(), segments.size());
+    }
+
+    /**
+     * Reads the record headers of a segment, skipping the contents, and returns the length of
+     * its complete records.
+     */
+    private long indexSegment(int segment) throws IOException {
+        long position = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmentPath(segment))))) {
+            while (true) {
+                byte[] hash = new byte[HASH_BYTES];
+                String messageId;
+                int idLength;
+                int rawLength;
+                int compressedLength;
+                try {
+                    idLength = in.readUnsignedShort();
+                    byte[] id = new byte[idLength];
+                    in.readFully(id);
+                    messageId = new String(id, StandardCharsets.UTF_8);
+                    in.readFully(hash);
+                    rawLength = in.readInt();
+                    compressedLength = in.readInt();
+                    in.skipNBytes(compressedLength);
+                } catch (EOFException e) {
+                    return position;
+                }
+
+                long contentStart = position + FIXED_HEADER_BYTES + idLength;
+                Hash key = new Hash(hash);
+                if (compressedLength > 0) {
+                    contents.put(key, new Location(segment, contentStart, compressedLength, rawLength));
+                }
+                if (contents.containsKey(key)) {
+                    messages.put(messageId, key);
+                }
+                position = contentStart + compressedLength;
+            }
+        }
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("%s%05d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        byte[] output = new byte[Math.max(64, input.length / 2)];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == output.length) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            length += deflater.deflate(output, length, output.length - length);
+        }
+        return Arrays.copyOf(output, length);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
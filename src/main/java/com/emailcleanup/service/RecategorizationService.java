@@ -0,0 +1,128 @@
+package com.emailcleanup.service;
+
+import com.emailcleanup.model.Email;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Refreshes the category column of every stored email after the categorization rules or the
+ * classifier changed, from the stored columns and each email's feature record, without
+ * downloading anything. The table is read a page at a time in ID order; each page is
+ * categorized on the common fork-join pool while the next one is read, and the categories that
+ * changed are written back in one batch per page.
+ *
+ * <p>Emails stored without a feature record, with a header-only one, or under different text
+ * keywords, are decided from subject and snippet where that is enough and otherwise keep their
+ * category.
+ */
+public class RecategorizationService {
+    private static final Logger logger = LoggerFactory.getLogger(RecategorizationService.class);
+    private static RecategorizationService instance;
+
+    private static final int PAGE_SIZE = 5_000;
+    // Emails one fork-join leaf categorizes; a few microseconds each
+    private static final int LEAF_SIZE = 256;
+
+    /**
+     * Outcome of a run: emails examined, emails whose category changed, and emails left as they
+     * were because their category could not be decided without the body.
+     */
+    public record Summary(int examined, int changed, int undecided) {
+    }
+
+    private final EmailCategorizerService categorizer;
+
+    private RecategorizationService() {
+        this.categorizer = EmailCategorizerService.getInstance();
+    }
+
+    public static synchronized RecategorizationService getInstance() {
+        if (instance == null) {
+            instance = new RecategorizationService();
+        }
+        return instance;
+    }
+
+    public Summary recategorizeAll(Consumer<String> progressCallback) throws SQLException {
+        DatabaseService database = DatabaseService.getInstance();
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        long start = System.nanoTime();
+        int examined = 0;
+        int changed = 0;
+        int undecided = 0;
+
+        List<Email> page = database.getEmailPage(null, PAGE_SIZE);
+        while (!page.isEmpty()) {
+            String[] categories = new String[page.size()];
+            ForkJoinTask<Void> pending = pool.submit(new CategorizeTask(page, categories, 0, page.size()));
+            List<Email> next = page.size() == PAGE_SIZE
+                    ? database.getEmailPage(page.get(page.size() - 1).getId(), PAGE_SIZE)
+                    : List.of();
+            pending.join();
+
+            Map<String, String> updates = new LinkedHashMap<>();
+            for (int i = 0; i < categories.length; i++) {
+                Email email = page.get(i);
+                if (categories[i] == null) {
+                    undecided++;
+                } else if (!Objects.equals(categories[i], email.getCategory())) {
+                    updates.put(email.getId(), categories[i]);
+                }
+            }
+            database.updateCategories(updates);
+            examined += page.size();
+            changed += updates.size();
+            progressCallback.accept(String.format("Re-categorized %d emails, %d changed...", examined, changed));
+            page = next;
+        }
+
+        Summary summary = new Summary(examined, changed, undecided);
+        logger.info("Re-categorized stored emails in {} ms: {}", (System.nanoTime() - start) / 1_000_000, summary);
+        progressCallback.accept(String.format("Re-categorization complete! %d of %d emails changed category.",
+                changed, examined));
+        return summary;
+    }
+
+    /**
+     * Categorizes a slice of a page into the matching slice of the result array, splitting in
+     * halves until a slice is small enough to run directly.
+     */
+    private final class CategorizeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Email> emails;
+        private final String[] categories;
+        private final int from;
+        private final int to;
+
+        CategorizeTask(List<Email> emails, String[] categories, int from, int to) {
+            this.emails = emails;
+            this.categories = categories;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_SIZE) {
+                for (int i = from; i < to; i++) {
+                    categories[i] = categorizer.recategorizeStored(emails.get(i));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new CategorizeTask(emails, categories, from, middle),
+                    new CategorizeTask(emails, categories, middle, to));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.emailcleanup.service;
+
+import com.emailcleanup.model.Email;
+import com.emailcleanup.service.EmailCategorizerService.SenderCacheStats;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the category each bulk sender settles on, so later mail from it skips
+ * categorization. The key is the sender address and List-Id plus every input the rules test
+ * besides text keywords: the unsubscribe flag and the label groups present. Mail from one
+ * sender with and without an unsubscribe link is therefore cached separately, and only the
+ * text can differ from the mail the cached category was computed from.
+ *
+ * <p>A sender counts as settled once {@value #SETTLE_AFTER} categorizations in a row agreed;
+ * one disagreeing result starts the count again. Settled senders are still fully categorized
+ * every {@value #VERIFY_EVERY}th message, so a sender whose mail changes character falls out of
+ * the cache.
+ */
+final class SenderCategoryCache {
+    private static final int SETTLE_AFTER = 5;
+    private static final int VERIFY_EVERY = 50;
+    private static final long MAX_SENDERS = 50_000;
+    private static final Duration IDLE_EXPIRY = Duration.ofDays(7);
+
+    private static final class Entry {
+        private String category;
+        private int agreeing;
+        private int servedSinceCheck;
+
+        /**
+         * Returns the settled category, or null when the caller must categorize.
+         */
+        synchronized String lookup() {
+            if (agreeing < SETTLE_AFTER || ++servedSinceCheck >= VERIFY_EVERY) {
+                return null;
+            }
+            return category;
+        }
+
+        synchronized void record(String observed) {
+            if (observed.equals(category)) {
+                agreeing++;
+            } else {
+                category = observed;
+                agreeing = 1;
+            }
+            servedSinceCheck = 0;
+        }
+
+        synchronized boolean isSettled() {
+            return agreeing >= SETTLE_AFTER;
+        }
+    }
+
+    private final Cache<String, Entry> entries = Caffeine.newBuilder()
+            .maximumSize(MAX_SENDERS)
+            .expireAfterAccess(IDLE_EXPIRY)
+            .recordStats()
+            .build();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Cache key for an email given the label groups the rules found in its labels, or null if
+     * it has no sender to key on.
+     */
+    static String keyOf(Email email, int labelGroups) {
+        String from = email.getFrom();
+        if (from == null || from.isEmpty()) {
+            return null;
+        }
+        String listId = email.getListId() != null ? email.getListId() : "";
+        return from + '\n' + listId + '\n' + (email.isHasUnsubscribeLink() ? 'U' : '-') + labelGroups;
+    }
+
+    /**
+     * Returns the settled category for the key, or null if the email must be categorized.
+     */
+    String lookup(String key) {
+        Entry entry = entries.getIfPresent(key);
+        String category = entry != null ? entry.lookup() : null;
+        if (category != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return category;
+    }
+
+    /**
+     * Records the category a full categorization produced for the key.
+     */
+    void record(String key, String category) {
+        entries.get(key, k -> new Entry()).record(category);
+    }
+
+    void clear() {
+        entries.invalidateAll();
+    }
+
+    SenderCacheStats stats() {
+        long settled = entries.asMap().values().stream().filter(Entry::isSettled).count();
+        return new SenderCacheStats(hits.sum(), misses.sum(), entries.estimatedSize(), settled,
+                entries.stats().evictionCount());
+    }
+}
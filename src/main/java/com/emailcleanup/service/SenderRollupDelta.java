@@ -0,0 +1,140 @@
+package com.emailcleanup.service;
+
+import com.emailcleanup.model.Email;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Net change to the {@code sender_rollup} table from a batch of email writes. Every stored email
+ * counts towards the rollup row of its sender and category; a write removes the old row's
+ * contribution and adds the new one, and {@link DatabaseService} applies the sum per rollup row
+ * in the same transaction. Missing senders and categories are keyed as empty strings.
+ *
+ * <p>Counts, bytes and unread counts are plain sums. Dates and the newest sender name can only be
+ * moved outward by additions, so removals remember their date range and the row is recomputed
+ * from the emails table when a removed email may have been its first or last one.
+ */
+final class SenderRollupDelta {
+
+    record Key(String sender, String category) {
+    }
+
+    /**
+     * The columns of one stored email that count towards its rollup row.
+     */
+    record Contribution(String sender, String name, String category, boolean read, long bytes, LocalDateTime date) {
+
+        static Contribution of(Email email) {
+            return new Contribution(email.getFrom(), email.getFromName(), email.getCategory(), email.isRead(),
+                    email.getSizeBytes(), email.getDate());
+        }
+
+        Contribution withRead(boolean read) {
+            return new Contribution(sender, name, category, read, bytes, date);
+        }
+
+        Contribution withCategory(String category) {
+            return new Contribution(sender, name, category, read, bytes, date);
+        }
+
+        Key key() {
+            return new Key(sender != null ? sender : "", category != null ? category : "");
+        }
+    }
+
+    static final class Change {
+        int count;
+        long bytes;
+        int unread;
+        LocalDateTime firstAdded;
+        LocalDateTime lastAdded;
+        String newestName;
+        LocalDateTime firstRemoved;
+        LocalDateTime lastRemoved;
+
+        /**
+         * True if a removed email may have been the first or last one of the row after this
+         * change, given the row's current dates (null for a new row), so the row's dates and
+         * name must be recomputed from the emails table.
+         */
+        boolean removesEdge(LocalDateTime currentFirst, LocalDateTime currentLast) {
+            LocalDateTime first = currentFirst == null || firstAdded != null && firstAdded.isBefore(currentFirst)
+                    ? firstAdded : currentFirst;
+            LocalDateTime last = currentLast == null || lastAdded != null && lastAdded.isAfter(currentLast)
+                    ? lastAdded : currentLast;
+            return firstRemoved != null && first != null && !firstRemoved.isAfter(first)
+                    || lastRemoved != null && last != null && !lastRemoved.isBefore(last);
+        }
+    }
+
+    private final Map<Key, Change> changes = new LinkedHashMap<>();
+
+    void add(Contribution email) {
+        Change change = changes.computeIfAbsent(email.key(), k -> new Change());
+        change.count++;
+        change.bytes += email.bytes();
+        if (!email.read()) {
+            change.unread++;
+        }
+        LocalDateTime date = email.date();
+        if (change.newestName == null || date != null && (change.lastAdded == null || !date.isBefore(change.lastAdded))) {
+            change.newestName = email.name();
+        }
+        if (date != null) {
+            if (change.firstAdded == null || date.isBefore(change.firstAdded)) {
+                change.firstAdded = date;
+            }
+            if (change.lastAdded == null || date.isAfter(change.lastAdded)) {
+                change.lastAdded = date;
+            }
+        }
+    }
+
+    void remove(Contribution email) {
+        remove(email, true);
+    }
+
+    private void remove(Contribution email, boolean trackDate) {
+        Change change = changes.computeIfAbsent(email.key(), k -> new Change());
+        change.count--;
+        change.bytes -= email.bytes();
+        if (!email.read()) {
+            change.unread--;
+        }
+        LocalDateTime date = email.date();
+        if (trackDate && date != null) {
+            if (change.firstRemoved == null || date.isBefore(change.firstRemoved)) {
+                change.firstRemoved = date;
+            }
+            if (change.lastRemoved == null || date.isAfter(change.lastRemoved)) {
+                change.lastRemoved = date;
+            }
+        }
+    }
+
+    /**
+     * Replaces one contribution by another, or adds it if {@code old} is null. Nothing changes
+     * when they are equal, as for an unchanged email that is saved again, and an email that
+     * stays in the same row at the same date, as when it is read, cannot move the row's dates.
+     */
+    void replace(Contribution old, Contribution updated) {
+        if (old != null) {
+            if (old.equals(updated)) {
+                return;
+            }
+            remove(old, !old.key().equals(updated.key()) || !Objects.equals(old.date(), updated.date()));
+        }
+        add(updated);
+    }
+
+    Map<Key, Change> changes() {
+        return changes;
+    }
+
+    boolean isEmpty() {
+        return changes.isEmpty();
+    }
+}
@@ -1,6 +1,9 @@
 package com.emailcleanup.service;
 
 import com.emailcleanup.model.Email;
+import com.emailcleanup.model.SenderActivity;
+
+import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
@@ -29,41 +32,80 @@ public class SmartAnalysisService {
         }
     }
 
+    // Senders with fewer stored emails are too insignificant to score
+    private static final int MIN_EMAILS_TO_SCORE = 3;
+
+    /**
+     * Scores every stored sender from totals the database aggregates, without loading emails.
+     */
+    public List<SenderDecayScore> analyzeInboxHealth() throws SQLException {
+        return scoreSenders(DatabaseService.getInstance().getSenderActivity(MIN_EMAILS_TO_SCORE));
+    }
+
+    /**
+     * Scores the senders of the given emails, totalling them in a single pass. The name of a
+     * sender is taken from its first email in the list.
+     */
     public List<SenderDecayScore> analyzeInboxHealth(List<Email> allEmails) {
-        Map<String, List<Email>> bySender = allEmails.stream()
-            .collect(Collectors.groupingBy(Email::getFrom));
+        Map<String, SenderTotals> bySender = new HashMap<>();
+        for (Email email : allEmails) {
+            bySender.computeIfAbsent(email.getFrom(), k -> new SenderTotals(email.getFromName())).add(email);
+        }
+
+        List<SenderActivity> activity = new ArrayList<>(bySender.size());
+        for (var entry : bySender.entrySet()) {
+            SenderTotals totals = entry.getValue();
+            if (totals.total >= MIN_EMAILS_TO_SCORE) {
+                activity.add(new SenderActivity(entry.getKey(), totals.name, totals.total, totals.unread,
+                    totals.lastDate, totals.bytes));
+            }
+        }
+        return scoreSenders(activity);
+    }
+
+    private static final class SenderTotals {
+        private final String name;
+        private int total;
+        private int unread;
+        private LocalDateTime lastDate;
+        private long bytes;
 
+        SenderTotals(String name) {
+            this.name = name;
+        }
+
+        void add(Email email) {
+            total++;
+            if (!email.isRead()) unread++;
+            if (email.getDate() != null && (lastDate == null || email.getDate().isAfter(lastDate))) {
+                lastDate = email.getDate();
+            }
+            bytes += email.getSizeBytes();
+        }
+    }
+
+    private List<SenderDecayScore> scoreSenders(List<SenderActivity> activity) {
         List<SenderDecayScore> scores = new ArrayList<>();
         LocalDateTime now = LocalDateTime.now();
 
-        for (var entry : bySender.entrySet()) {
-            String sender = entry.getKey();
-            List<Email> emails = entry.getValue();
-            int total = emails.size();
-            
-            // Skip insignificant senders
-            if (total < 3) continue;
-
-            long unread = emails.stream().filter(e -> !e.isRead()).count();
+        for (SenderActivity sender : activity) {
+            int total = sender.totalEmails();
+            int unread = sender.unreadCount();
             double openRate = (double) (total - unread) / total;
-            
-            LocalDateTime lastDate = emails.stream()
-                .map(Email::getDate)
-                .max(LocalDateTime::compareTo)
-                .orElse(now);
-                
+
+            LocalDateTime lastDate = sender.lastReceived() != null ? sender.lastReceived() : now;
             long daysSinceLast = ChronoUnit.DAYS.between(lastDate, now);
-            long wastedBytes = emails.stream().mapToLong(Email::getSizeBytes).sum();
+            long wastedBytes = sender.totalBytes();
             
             String status = determineStatus(openRate, daysSinceLast, total);
 
             // Only add if it's worth cleaning up
             if (!status.equals("ACTIVE")) {
-                String name = emails.get(0).getFromName();
-                if (name == null || name.isEmpty()) name = sender;
+                String name = sender.senderName();
+                if (name == null || name.isEmpty()) name = sender.senderEmail();
                 
                 scores.add(new SenderDecayScore(
-                    sender, name, total, (int)unread, openRate, lastDate, wastedBytes, status
+                    sender.senderEmail(), name, total, unread, openRate, lastDate, wastedBytes, status
                 ));
             }
         }
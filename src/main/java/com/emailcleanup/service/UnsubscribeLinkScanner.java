@@ -0,0 +1,438 @@
+package com.emailcleanup.service;
+
+/**
+ * Finds the first unsubscribe link in an HTML body without building a DOM. The scanner walks the
+ * markup once, looks only at {@code <a href>} tags and their text, skips comments, scripts and
+ * styles, and stops at the first anchor whose text mentions unsubscribe, opt out or remove, or
+ * whose href contains "unsubscribe" - the same rule the Jsoup based lookup applies.
+ *
+ * <p>Input it cannot read with certainty, such as an unterminated tag, quote or comment, or an
+ * unknown entity inside an href, is reported as {@link Outcome#MALFORMED} so the caller can fall
+ * back to a full parser.
+ */
+final class UnsubscribeLinkScanner {
+    private static final int MAX_ANCHOR_TEXT = 4096;
+
+    enum Outcome {
+        FOUND, NOT_FOUND, MALFORMED
+    }
+
+    record Result(Outcome outcome, String url) {
+        static final Result NOT_FOUND = new Result(Outcome.NOT_FOUND, null);
+        static final Result MALFORMED = new Result(Outcome.MALFORMED, null);
+    }
+
+    private final CharSequence html;
+    private final int length;
+    private final StringBuilder text = new StringBuilder();
+    private int hrefStart;
+    private int hrefEnd;
+
+    private UnsubscribeLinkScanner(CharSequence html) {
+        this.html = html;
+        this.length = html.length();
+    }
+
+    static Result scan(CharSequence html) {
+        return new UnsubscribeLinkScanner(html).scan();
+    }
+
+    private Result scan() {
+        int i = 0;
+        while (i < length) {
+            int lt = indexOf('<', i);
+            if (lt < 0) {
+                return Result.NOT_FOUND;
+            }
+            if (!isMarkupStart(lt)) {
+                i = lt + 1;
+                continue;
+            }
+
+            int next = skipIgnoredBlock(lt);
+            if (next == -1) {
+                return Result.MALFORMED;
+            }
+            if (next > lt) {
+                i = next;
+                continue;
+            }
+
+            if (!isOpenTag(lt, "a")) {
+                int gt = parseTag(lt, 1);
+                if (gt < 0) {
+                    return Result.MALFORMED;
+                }
+                i = gt + 1;
+                continue;
+            }
+
+            hrefStart = -1;
+            int gt = parseTag(lt, 2);
+            if (gt < 0) {
+                return Result.MALFORMED;
+            }
+            if (hrefStart < 0) {
+                i = gt + 1;
+                continue;
+            }
+
+            int valueStart = hrefStart;
+            int valueEnd = hrefEnd;
+            int textEnd = readAnchorText(gt + 1);
+            if (textEnd == -1) {
+                return Result.MALFORMED;
+            }
+
+            if (text.indexOf("unsubscribe") >= 0 || text.indexOf("opt out") >= 0
+                    || text.indexOf("remove") >= 0 || containsIgnoreCase(valueStart, valueEnd, "unsubscribe")) {
+                String url = decodeAttribute(valueStart, valueEnd);
+                return url != null ? new Result(Outcome.FOUND, url) : Result.MALFORMED;
+            }
+            i = textEnd;
+        }
+        return Result.NOT_FOUND;
+    }
+
+    /**
+     * Collects the lower-cased, whitespace-collapsed text of an anchor into {@link #text}, up to
+     * its closing tag or the next anchor. Returns where scanning should continue, or -1 if the
+     * markup is malformed.
+     */
+    private int readAnchorText(int start) {
+        text.setLength(0);
+        boolean pendingSpace = false;
+        int i = start;
+        while (i < length) {
+            char c = html.charAt(i);
+            if (c == '<' && isMarkupStart(i)) {
+                if (isCloseTag(i, "a")) {
+                    int gt = parseTag(i, 3);
+                    return gt < 0 ? -1 : gt + 1;
+                }
+                if (isOpenTag(i, "a")) {
+                    return i;
+                }
+                int next = skipIgnoredBlock(i);
+                if (next == -1) {
+                    return -1;
+                }
+                if (next > i) {
+                    i = next;
+                    continue;
+                }
+                if (isOpenTag(i, "br")) {
+                    pendingSpace = text.length() > 0;
+                }
+                int gt = parseTag(i, 1);
+                if (gt < 0) {
+                    return -1;
+                }
+                i = gt + 1;
+                continue;
+            }
+
+            if (isWhitespace(c) || c == '\u00a0') {
+                pendingSpace = text.length() > 0 && text.charAt(text.length() - 1) != ' ';
+                i++;
+                continue;
+            }
+            if (text.length() >= MAX_ANCHOR_TEXT) {
+                i++;
+                continue;
+            }
+            if (pendingSpace) {
+                text.append(' ');
+                pendingSpace = false;
+            }
+            if (c == '&') {
+                i = appendEntity(i, text, true);
+                continue;
+            }
+            text.append(Character.toLowerCase(c));
+            i++;
+        }
+        return length;
+    }
+
+    /**
+     * Skips a comment, script or style block starting at {@code lt}. Returns the index after it,
+     * {@code lt} itself if there is no such block there, or -1 if it is unterminated.
+     */
+    private int skipIgnoredBlock(int lt) {
+        if (startsWith(lt, "<!--")) {
+            int end = indexOf("-->", lt + 4);
+            return end < 0 ? -1 : end + 3;
+        }
+        String name = isOpenTag(lt, "script") ? "script" : isOpenTag(lt, "style") ? "style" : null;
+        if (name == null) {
+            return lt;
+        }
+        int i = lt + 1;
+        while (true) {
+            int close = indexOf('<', i);
+            if (close < 0) {
+                return -1;
+            }
+            if (isCloseTag(close, name)) {
+                int gt = parseTag(close, name.length() + 2);
+                return gt < 0 ? -1 : gt + 1;
+            }
+            i = close + 1;
+        }
+    }
+
+    /**
+     * Walks the attributes of the tag at {@code lt}, starting {@code nameLength} characters in,
+     * and returns the index of its last character or -1. The first href value found is recorded.
+     * A tag usually ends at its closing '>', but like Jsoup a '<' in its name or where an
+     * attribute would start ends it early, and declarations end at the first '>' whatever quotes
+     * they hold.
+     */
+    private int parseTag(int lt, int nameLength) {
+        char first = html.charAt(lt + 1);
+        if (first == '!' || first == '?' || (first == '/' && !isTagNameStart(lt + 2))) {
+            return indexOf('>', lt + 1);
+        }
+
+        int i = lt + nameLength;
+        while (i < length && !isTagNameEnd(html.charAt(i))) {
+            i++;
+        }
+        while (i < length) {
+            char c = html.charAt(i);
+            if (c == '>') {
+                return i;
+            }
+            if (c == '<') {
+                return i - 1;
+            }
+            if (isWhitespace(c) || c == '/') {
+                i++;
+                continue;
+            }
+
+            int nameStart = i;
+            while (i < length && !isWhitespace(html.charAt(i)) && html.charAt(i) != '='
+                    && html.charAt(i) != '>' && html.charAt(i) != '/') {
+                i++;
+            }
+            int nameEnd = i;
+            while (i < length && isWhitespace(html.charAt(i))) {
+                i++;
+            }
+            if (i >= length || html.charAt(i) != '=') {
+                continue;
+            }
+            i++;
+            while (i < length && isWhitespace(html.charAt(i))) {
+                i++;
+            }
+            if (i >= length) {
+                return -1;
+            }
+
+            int valueStart;
+            int valueEnd;
+            char quote = html.charAt(i);
+            if (quote == '"' || quote == '\'') {
+                valueStart = i + 1;
+                valueEnd = indexOf(quote, valueStart);
+                if (valueEnd < 0) {
+                    return -1;
+                }
+                i = valueEnd + 1;
+            } else {
+                valueStart = i;
+                while (i < length && !isWhitespace(html.charAt(i)) && html.charAt(i) != '>') {
+                    i++;
+                }
+                valueEnd = i;
+            }
+
+            if (hrefStart < 0 && nameEnd - nameStart == 4 && regionMatches(nameStart, "href")) {
+                hrefStart = valueStart;
+                hrefEnd = valueEnd;
+            }
+        }
+        return -1;
+    }
+
+    private String decodeAttribute(int start, int end) {
+        StringBuilder value = new StringBuilder(end - start);
+        int i = start;
+        while (i < end) {
+            char c = html.charAt(i);
+            if (c == '&') {
+                int next = appendEntity(i, value, false);
+                if (next < 0) {
+                    return null;
+                }
+                i = next;
+            } else {
+                value.append(c);
+                i++;
+            }
+        }
+        return value.toString().trim();
+    }
+
+    /**
+     * Decodes the character reference at {@code amp} into {@code out} and returns the index after
+     * it. Unknown references are copied literally in text, and rejected (-1) in attributes.
+     */
+    private int appendEntity(int amp, StringBuilder out, boolean lowerCase) {
+        int semicolon = -1;
+        for (int i = amp + 1; i < Math.min(length, amp + 12); i++) {
+            if (html.charAt(i) == ';') {
+                semicolon = i;
+                break;
+            }
+        }
+
+        int codePoint = semicolon < 0 ? -1 : decodeReference(amp + 1, semicolon);
+        if (codePoint < 0) {
+            if (!lowerCase && semicolon >= 0) {
+                return -1;
+            }
+            out.append('&');
+            return amp + 1;
+        }
+        if (lowerCase && codePoint == '\u00a0') {
+            // Anchor text is whitespace-normalised, which treats non-breaking spaces as spaces
+            if (out.length() > 0 && out.charAt(out.length() - 1) != ' ') {
+                out.append(' ');
+            }
+            return semicolon + 1;
+        }
+        if (lowerCase) {
+            codePoint = Character.toLowerCase(codePoint);
+        }
+        out.appendCodePoint(codePoint);
+        return semicolon + 1;
+    }
+
+    private int decodeReference(int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        if (html.charAt(start) == '#') {
+            boolean hex = start + 1 < end && (html.charAt(start + 1) == 'x' || html.charAt(start + 1) == 'X');
+            int digitsStart = hex ? start + 2 : start + 1;
+            if (digitsStart >= end) {
+                return -1;
+            }
+            int value = 0;
+            for (int i = digitsStart; i < end; i++) {
+                int digit = Character.digit(html.charAt(i), hex ? 16 : 10);
+                if (digit < 0) {
+                    return -1;
+                }
+                value = value * (hex ? 16 : 10) + digit;
+                if (value > Character.MAX_CODE_POINT) {
+                    return -1;
+                }
+            }
+            return value;
+        }
+        int nameLength = end - start;
+        if (nameLength == 3 && regionMatchesExact(start, "amp")) return '&';
+        if (nameLength == 2 && regionMatchesExact(start, "lt")) return '<';
+        if (nameLength == 2 && regionMatchesExact(start, "gt")) return '>';
+        if (nameLength == 4 && regionMatchesExact(start, "quot")) return '"';
+        if (nameLength == 4 && regionMatchesExact(start, "apos")) return '\'';
+        if (nameLength == 4 && regionMatchesExact(start, "nbsp")) return '\u00a0';
+        return -1;
+    }
+
+    /**
+     * Whether the '<' at {@code lt} starts a tag, comment or declaration. As in HTML, a '<'
+     * followed by anything else, such as the one in "a < b", is plain text.
+     */
+    private boolean isMarkupStart(int lt) {
+        if (lt + 1 >= length) {
+            return false;
+        }
+        char c = html.charAt(lt + 1);
+        return isTagNameStart(lt + 1) || c == '/' || c == '!' || c == '?';
+    }
+
+    private boolean isTagNameStart(int i) {
+        if (i >= length) {
+            return false;
+        }
+        char c = html.charAt(i);
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private boolean isOpenTag(int lt, String name) {
+        int end = lt + 1 + name.length();
+        return end <= length && regionMatches(lt + 1, name) && (end == length || isTagNameEnd(html.charAt(end)));
+    }
+
+    private boolean isCloseTag(int lt, String name) {
+        int end = lt + 2 + name.length();
+        return end <= length && html.charAt(lt + 1) == '/' && regionMatches(lt + 2, name)
+                && (end == length || isTagNameEnd(html.charAt(end)));
+    }
+
+    private static boolean isTagNameEnd(char c) {
+        return c == '>' || c == '/' || c == '<' || isWhitespace(c);
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private boolean regionMatches(int offset, String lowerCaseName) {
+        if (offset + lowerCaseName.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < lowerCaseName.length(); i++) {
+            if (Character.toLowerCase(html.charAt(offset + i)) != lowerCaseName.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean regionMatchesExact(int offset, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (html.charAt(offset + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean containsIgnoreCase(int start, int end, String lowerCaseNeedle) {
+        for (int i = start; i + lowerCaseNeedle.length() <= end; i++) {
+            if (regionMatches(i, lowerCaseNeedle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean startsWith(int offset, String prefix) {
+        return offset + prefix.length() <= length && regionMatchesExact(offset, prefix);
+    }
+
+    private int indexOf(char c, int from) {
+        for (int i = from; i < length; i++) {
+            if (html.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(String needle, int from) {
+        for (int i = from; i + needle.length() <= length; i++) {
+            if (regionMatchesExact(i, needle)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
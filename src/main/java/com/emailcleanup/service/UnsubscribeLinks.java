@@ -0,0 +1,92 @@
+package com.emailcleanup.service;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Unsubscribe link lookup shared by the Gmail scanner and the local mailbox importer.
+ */
+final class UnsubscribeLinks {
+    private static final Logger logger = LoggerFactory.getLogger(UnsubscribeLinks.class);
+
+    private UnsubscribeLinks() {
+    }
+
+    /**
+     * Returns the first http(s) URL of a List-Unsubscribe header value, or null if it has none.
+     */
+    static String fromListUnsubscribe(String listUnsubscribe) {
+        if (listUnsubscribe == null || listUnsubscribe.isEmpty()) {
+            return null;
+        }
+        if (listUnsubscribe.contains("<http")) {
+            int start = listUnsubscribe.indexOf("<http");
+            int end = listUnsubscribe.indexOf(">", start);
+            if (end != -1) {
+                return listUnsubscribe.substring(start + 1, end);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * True if a List-Unsubscribe-Post header value announces RFC 8058 one-click unsubscribe.
+     */
+    static boolean isOneClick(String listUnsubscribePost) {
+        return listUnsubscribePost != null
+                && listUnsubscribePost.trim().equalsIgnoreCase("List-Unsubscribe=One-Click");
+    }
+
+    /**
+     * Looks for an unsubscribe link in the body's head window and, for truncated bodies, in the
+     * tail window where footers usually are.
+     */
+    static String fromBody(MessageBody body) {
+        String url = fromHtml(body.head());
+        if (url == null && !body.tail().isEmpty()) {
+            url = fromHtml(body.tail());
+        }
+        return url;
+    }
+
+    private static String fromHtml(String html) {
+        if (html.isEmpty()) {
+            return null;
+        }
+
+        UnsubscribeLinkScanner.Result result = UnsubscribeLinkScanner.scan(html);
+        if (result.outcome() != UnsubscribeLinkScanner.Outcome.MALFORMED) {
+            return result.url();
+        }
+
+        // Markup the streaming scanner could not read reliably goes through the full parser
+        return fromParsedHtml(html);
+    }
+
+    /**
+     * Looks for an unsubscribe link in a full Jsoup parse of the markup.
+     */
+    static String fromParsedHtml(String html) {
+        try {
+            Document doc = Jsoup.parse(html);
+            Elements links = doc.select("a[href]");
+
+            for (Element link : links) {
+                String text = link.text().toLowerCase();
+                String href = link.attr("href");
+
+                if (text.contains("unsubscribe") || text.contains("opt out") ||
+                    text.contains("remove") || href.toLowerCase().contains("unsubscribe")) {
+                    return href;
+                }
+            }
+        } catch (Exception e) {
+            logger.debug("Error parsing HTML for unsubscribe link", e);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,122 @@
+package com.emailcleanup.tools;
+
+import com.emailcleanup.model.Email;
+import com.emailcleanup.model.UnsubscribeOutcome;
+import com.emailcleanup.service.BulkUnsubscribeService;
+import com.emailcleanup.service.DatabaseService;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a bulk unsubscribe against a local one-click endpoint, using a throwaway database in a
+ * temporary home directory: {@code BulkUnsubscribeRunner [senders] [parallelism] [perHostLimit]
+ * [latencyMillis] [failureRate]}. A third of the senders are browser-only and every tenth has no
+ * link, so all outcomes are exercised. The endpoint rejects bodies that are not the RFC 8058
+ * one-click form and reports the highest number of requests it saw in flight.
+ */
+public class BulkUnsubscribeRunner {
+
+    public static void main(String[] args) throws Exception {
+        int senders = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int perHostLimit = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        long latency = args.length > 3 ? Long.parseLong(args[3]) : 200;
+        double failureRate = args.length > 4 ? Double.parseDouble(args[4]) : 0.05;
+
+        Path home = Files.createTempDirectory("smartmail-unsubscribe-");
+        System.setProperty("user.home", home.toString());
+
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "fake-unsubscribe");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.createContext("/unsubscribe/", exchange -> {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            try (exchange) {
+                Thread.sleep(latency);
+                String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                boolean valid = exchange.getRequestMethod().equals("POST") && body.equals("List-Unsubscribe=One-Click");
+                int status = !valid ? 400 : ThreadLocalRandom.current().nextDouble() < failureRate ? 500 : 200;
+                respond(exchange, status);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        });
+        server.start();
+        String baseUrl = "http://localhost:" + server.getAddress().getPort() + "/unsubscribe/";
+
+        DatabaseService db = DatabaseService.getInstance();
+        db.initialize();
+        List<String> senderEmails = new ArrayList<>();
+        List<Email> emails = new ArrayList<>();
+        for (int i = 0; i < senders; i++) {
+            String sender = "news" + i + "@sender" + i + ".example";
+            senderEmails.add(sender);
+            Email email = new Email();
+            email.setId("unsub-" + i);
+            email.setMessageId("<unsub-" + i + "@example>");
+            email.setFrom(sender);
+            email.setFromName("Sender " + i);
+            email.setSubject("Newsletter " + i);
+            email.setDate(LocalDateTime.now());
+            email.setCategory("NEWSLETTER");
+            if (i % 10 != 9) {
+                email.setHasUnsubscribeLink(true);
+                email.setUnsubscribeUrl(baseUrl + i);
+                email.setOneClickUnsubscribe(i % 3 != 0);
+            }
+            emails.add(email);
+        }
+        db.saveEmails(emails);
+
+        BulkUnsubscribeService service = BulkUnsubscribeService.getInstance();
+        service.setParallelism(parallelism);
+        service.setPerHostLimit(perHostLimit);
+        service.setRequestTimeout(Duration.ofMillis(latency * 10));
+
+        try {
+            long start = System.nanoTime();
+            List<UnsubscribeOutcome> outcomes = service.unsubscribeAll(senderEmails, progress -> { });
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            Map<UnsubscribeOutcome.Status, Integer> counts = new EnumMap<>(UnsubscribeOutcome.Status.class);
+            for (UnsubscribeOutcome outcome : outcomes) {
+                counts.merge(outcome.getStatus(), 1, Integer::sum);
+            }
+            System.out.printf("Unsubscribed %d senders in %.2f s%n", senders, seconds);
+            System.out.printf("parallelism=%d, perHostLimit=%d, latency=%d ms%n", parallelism, perHostLimit, latency);
+            System.out.println("Outcomes: " + counts);
+            System.out.println("Max requests in flight at the endpoint: " + maxInFlight.get());
+        } finally {
+            db.shutdown();
+            server.stop(0);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+    }
+}
@@ -0,0 +1,185 @@
+package com.emailcleanup.tools;
+
+import com.emailcleanup.model.Email;
+import com.emailcleanup.service.EmailCategorizerService;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Compares {@link EmailCategorizerService#categorizeWithRules} with the original lowercase-and-
+ * {@code String.contains} cascade on a synthetic corpus, checking that both pick the same
+ * category for every email before timing them and measuring the bytes each allocates per email:
+ * {@code CategorizerBenchmark [emails] [bodyKilobytes] [rounds]}. It runs in a temporary home
+ * directory, so the categorizer uses the bundled default rules. The rules are called directly,
+ * since the sender cache answers settled senders without reading the body.
+ */
+public class CategorizerBenchmark {
+
+    private static final String[] FILLER = {
+        "<div>", "</div>", "<p>", "</p>", "<td>", "</td>", "the", "account", "team", "your", "order",
+        "report", "meeting", "project", "invoice", "schedule", "please", "review", "attached", "thanks",
+        "class=\"content\"", "style=\"color:#333\"", "<br/>", "&nbsp;", "regards", "tomorrow"
+    };
+
+    private static final String[] PLANTED = {
+        "limited time", "weekly digest", "commented", "free shipping", "roundup", "friend request",
+        "50% off", "subscription", "mentioned", "clearance"
+    };
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int bodyKilobytes = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        System.setProperty("user.home", Files.createTempDirectory("smartmail-categorizer-").toString());
+
+        List<Email> emails = new ArrayList<>(count);
+        List<String> bodies = new ArrayList<>(count);
+        generate(count, bodyKilobytes * 1024, emails, bodies);
+
+        EmailCategorizerService categorizer = EmailCategorizerService.getInstance();
+        for (int i = 0; i < count; i++) {
+            String expected = LegacyCategorizer.categorize(emails.get(i), bodies.get(i));
+            String actual = categorizer.categorizeWithRules(emails.get(i), bodies.get(i));
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException("Email " + i + ": expected " + expected + " but got " + actual);
+            }
+        }
+        System.out.printf("Categories match on all %d emails%n", count);
+
+        Runnable legacyRun = () -> {
+            for (int i = 0; i < count; i++) {
+                LegacyCategorizer.categorize(emails.get(i), bodies.get(i));
+            }
+        };
+        Runnable automatonRun = () -> {
+            for (int i = 0; i < count; i++) {
+                categorizer.categorizeWithRules(emails.get(i), bodies.get(i));
+            }
+        };
+
+        for (int round = 1; round <= rounds; round++) {
+            long legacy = time(legacyRun);
+            long automaton = time(automatonRun);
+            System.out.printf("round %d: contains cascade %.1f us/email, automaton %.1f us/email (%.1fx)%n",
+                    round, legacy / 1e3 / count, automaton / 1e3 / count, (double) legacy / automaton);
+        }
+        System.out.printf("allocated: contains cascade %d bytes/email, automaton %d bytes/email%n",
+                allocated(legacyRun) / count, allocated(automatonRun) / count);
+    }
+
+    private static long time(Runnable work) {
+        long start = System.nanoTime();
+        work.run();
+        return System.nanoTime() - start;
+    }
+
+    private static long allocated(Runnable work) {
+        long threadId = Thread.currentThread().getId();
+        long start = THREADS.getThreadAllocatedBytes(threadId);
+        work.run();
+        return THREADS.getThreadAllocatedBytes(threadId) - start;
+    }
+
+    private static void generate(int count, int bodyChars, List<Email> emails, List<String> bodies) {
+        Random random = new Random(42);
+        for (int i = 0; i < count; i++) {
+            StringBuilder body = new StringBuilder(bodyChars + 64);
+            while (body.length() < bodyChars) {
+                body.append(FILLER[random.nextInt(FILLER.length)]).append(' ');
+            }
+            // Most keywords sit in the footer, where the per-keyword scans have to read everything;
+            // some are capitalised to exercise case-insensitive matching
+            if (random.nextInt(4) != 0) {
+                String keyword = PLANTED[random.nextInt(PLANTED.length)];
+                body.append(random.nextInt(3) == 0 ? keyword.toUpperCase() : keyword);
+            }
+
+            Email email = new Email();
+            email.setId("bench-" + i);
+            email.setFrom(random.nextInt(5) == 0 ? "NoReply@service.example" : "person" + i + "@example.com");
+            email.setSubject(random.nextInt(10) == 0 ? "Your Weekly Digest " + i : "Update " + i);
+            email.setSnippet("Snippet for message " + i);
+            email.setHasUnsubscribeLink(random.nextBoolean());
+            email.setLabelIds(random.nextInt(3) == 0 ? "INBOX,CATEGORY_UPDATES" : "INBOX");
+            emails.add(email);
+            bodies.add(body.toString());
+        }
+    }
+
+    /**
+     * The categorizer as it was before keyword matching moved to a single automaton, with the
+     * rules that are now the bundled defaults.
+     */
+    private static final class LegacyCategorizer {
+        private static final List<String> PROMOTIONAL_KEYWORDS = Arrays.asList(
+            "sale", "discount", "offer", "deal", "promotion", "coupon", "save", "free shipping",
+            "limited time", "exclusive", "special offer", "buy now", "shop now", "clearance",
+            "% off", "unsubscribe", "newsletter", "marketing", "advertisement"
+        );
+
+        private static final List<String> SOCIAL_KEYWORDS = Arrays.asList(
+            "liked", "commented", "shared", "followed", "mentioned", "tagged",
+            "notification", "activity", "update from", "friend request", "message from"
+        );
+
+        private static final List<String> NEWSLETTER_KEYWORDS = Arrays.asList(
+            "newsletter", "weekly digest", "monthly update", "daily brief",
+            "subscribe", "subscription", "bulletin", "roundup"
+        );
+
+        private static final Pattern EMAIL_PATTERN = Pattern.compile(
+            "noreply|no-reply|donotreply|do-not-reply|notifications|automated|mailer",
+            Pattern.CASE_INSENSITIVE
+        );
+
+        static String categorize(Email email, String htmlBody) {
+            String lowerSubject = email.getSubject() != null ? email.getSubject().toLowerCase() : "";
+            String lowerSnippet = email.getSnippet() != null ? email.getSnippet().toLowerCase() : "";
+            String lowerFrom = email.getFrom() != null ? email.getFrom().toLowerCase() : "";
+            String lowerBody = htmlBody != null ? htmlBody.toLowerCase() : "";
+            String combinedText = lowerSubject + " " + lowerSnippet + " " + lowerBody;
+
+            if (email.isHasUnsubscribeLink()) {
+                if (containsKeywords(combinedText, NEWSLETTER_KEYWORDS)) return "NEWSLETTER";
+                if (containsKeywords(combinedText, PROMOTIONAL_KEYWORDS)) return "PROMOTIONAL";
+                if (containsKeywords(combinedText, SOCIAL_KEYWORDS)) return "SOCIAL";
+                return "PROMOTIONAL";
+            }
+            if (EMAIL_PATTERN.matcher(lowerFrom).find()) {
+                if (containsKeywords(combinedText, SOCIAL_KEYWORDS)) return "SOCIAL";
+                return "AUTOMATED";
+            }
+            if (containsKeywords(combinedText, PROMOTIONAL_KEYWORDS)) return "PROMOTIONAL";
+            if (containsKeywords(combinedText, SOCIAL_KEYWORDS)) return "SOCIAL";
+            if (containsKeywords(combinedText, NEWSLETTER_KEYWORDS)) return "NEWSLETTER";
+
+            if (email.getLabelIds() != null) {
+                String labels = email.getLabelIds().toLowerCase();
+                if (labels.contains("spam")) return "SPAM";
+                if (labels.contains("promotions") || labels.contains("category_promotions")) return "PROMOTIONAL";
+                if (labels.contains("social") || labels.contains("category_social")) return "SOCIAL";
+                if (labels.contains("updates") || labels.contains("category_updates")) return "NEWSLETTER";
+            }
+            return "IMPORTANT";
+        }
+
+        private static boolean containsKeywords(String text, List<String> keywords) {
+            for (String keyword : keywords) {
+                if (text.contains(keyword)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
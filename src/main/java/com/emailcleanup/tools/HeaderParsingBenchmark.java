@@ -0,0 +1,177 @@
+package com.emailcleanup.tools;
+
+import com.emailcleanup.service.MessageHeaders;
+import com.google.api.services.gmail.model.MessagePart;
+import com.google.api.services.gmail.model.MessagePartHeader;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Compares {@link MessageHeaders#of} with the original lookup, which scanned the header list
+ * with {@code equalsIgnoreCase} once per header read, on synthetic mailing-list messages with
+ * 40 or more headers. It checks that both read the same values from every message before timing
+ * them and measuring the bytes each allocates per message:
+ * {@code HeaderParsingBenchmark [messages] [extraHeaders] [rounds]}.
+ */
+public class HeaderParsingBenchmark {
+
+    private static final String[] TRACE_HEADERS = {
+        "Delivered-To", "Received", "X-Google-Smtp-Source", "X-Received", "ARC-Seal",
+        "ARC-Message-Signature", "ARC-Authentication-Results", "Return-Path", "Received", "Received-SPF",
+        "Authentication-Results", "Received", "DKIM-Signature", "DKIM-Signature", "X-Google-DKIM-Signature",
+        "X-Gm-Message-State", "Received", "Received", "X-Received", "Received"
+    };
+
+    private static final String[] CONTENT_HEADERS = {
+        "MIME-Version", "Date", "To", "Reply-To", "Content-Type", "X-Mailer", "Precedence",
+        "Feedback-ID", "X-SG-EID", "X-Entity-ID", "X-Campaign", "X-Report-Abuse", "X-CSA-Complaints",
+        "X-MC-User", "X-Auto-Response-Suppress"
+    };
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int extraHeaders = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        List<MessagePart> payloads = generate(count, extraHeaders);
+        int headerCount = 0;
+        for (MessagePart payload : payloads) {
+            headerCount += payload.getHeaders().size();
+        }
+        System.out.printf("%d messages, %.1f headers each on average%n", count, (double) headerCount / count);
+
+        for (int i = 0; i < count; i++) {
+            MessagePart payload = payloads.get(i);
+            MessageHeaders headers = MessageHeaders.of(payload);
+            String[] legacy = LegacyHeaders.read(payload);
+            String[] actual = {
+                headers.messageId(), headers.from(), headers.subject(), headers.listUnsubscribe(),
+                headers.listUnsubscribePost(), headers.listId()
+            };
+            for (int h = 0; h < actual.length; h++) {
+                if (!Objects.equals(legacy[h], actual[h])) {
+                    throw new IllegalStateException("Message " + i + ", " + LegacyHeaders.NAMES[h]
+                            + ": expected " + legacy[h] + " but got " + actual[h]);
+                }
+            }
+        }
+        System.out.printf("Headers match on all %d messages%n", count);
+
+        Runnable legacyRun = () -> {
+            for (MessagePart payload : payloads) {
+                LegacyHeaders.read(payload);
+            }
+        };
+        Runnable singlePassRun = () -> {
+            for (MessagePart payload : payloads) {
+                MessageHeaders headers = MessageHeaders.of(payload);
+                headers.listId();
+            }
+        };
+
+        for (int round = 1; round <= rounds; round++) {
+            long legacy = time(legacyRun);
+            long singlePass = time(singlePassRun);
+            System.out.printf("round %d: repeated lookups %.0f ns/message, single pass %.0f ns/message (%.1fx)%n",
+                    round, (double) legacy / count, (double) singlePass / count, (double) legacy / singlePass);
+        }
+        System.out.printf("allocated: repeated lookups %d bytes/message, single pass %d bytes/message%n",
+                allocated(legacyRun) / count, allocated(singlePassRun) / count);
+    }
+
+    private static long time(Runnable work) {
+        long start = System.nanoTime();
+        work.run();
+        return System.nanoTime() - start;
+    }
+
+    private static long allocated(Runnable work) {
+        long threadId = Thread.currentThread().getId();
+        long start = THREADS.getThreadAllocatedBytes(threadId);
+        work.run();
+        return THREADS.getThreadAllocatedBytes(threadId) - start;
+    }
+
+    /**
+     * Builds messages shaped like bulk mail: trace headers first, then the content headers with
+     * the ones the scanner reads among them. Some messages lack the list headers, so their
+     * lookups have to read the whole list, and header names vary in case as they do in practice.
+     */
+    private static List<MessagePart> generate(int count, int extraHeaders) {
+        Random random = new Random(42);
+        List<MessagePart> payloads = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            List<MessagePartHeader> headers = new ArrayList<>();
+            for (String name : TRACE_HEADERS) {
+                headers.add(header(name, "by mx" + random.nextInt(100) + ".example.net with ESMTPS id " + i));
+            }
+            List<MessagePartHeader> content = new ArrayList<>();
+            for (String name : CONTENT_HEADERS) {
+                content.add(header(name, "value " + random.nextInt(1000)));
+            }
+            for (int x = 0; x < extraHeaders; x++) {
+                content.add(header("X-Extra-" + x, "value " + random.nextInt(1000)));
+            }
+            content.add(header(random.nextBoolean() ? "Message-ID" : "Message-Id", "<" + i + "@mail.example.com>"));
+            content.add(header("From", "\"Sender " + i % 50 + "\" <news" + i % 50 + "@example.com>"));
+            content.add(header("Subject", "Issue " + i));
+            if (random.nextInt(4) != 0) {
+                content.add(header("List-Unsubscribe", "<https://example.com/u/" + i + ">"));
+                content.add(header("List-Unsubscribe-Post", "List-Unsubscribe=One-Click"));
+                content.add(header(random.nextBoolean() ? "List-Id" : "List-ID", "\"News\" <news" + i % 50 + ".example.com>"));
+            }
+            // Keep the trace block first, as mail servers prepend it
+            for (int c = content.size() - 1; c > 0; c--) {
+                int j = random.nextInt(c + 1);
+                MessagePartHeader swap = content.get(c);
+                content.set(c, content.get(j));
+                content.set(j, swap);
+            }
+            headers.addAll(content);
+            payloads.add(new MessagePart().setHeaders(headers));
+        }
+        return payloads;
+    }
+
+    private static MessagePartHeader header(String name, String value) {
+        return new MessagePartHeader().setName(name).setValue(value);
+    }
+
+    /**
+     * The header lookup as it was before the single pass: one scan of the list per header.
+     */
+    private static final class LegacyHeaders {
+        static final String[] NAMES = {
+            "Message-ID", "From", "Subject", "List-Unsubscribe", "List-Unsubscribe-Post", "List-Id"
+        };
+
+        static String[] read(MessagePart payload) {
+            String[] values = new String[NAMES.length];
+            for (int h = 0; h < NAMES.length; h++) {
+                values[h] = getHeader(payload, NAMES[h]);
+            }
+            // The scanner stores the List-Id reduced to its identifier either way
+            values[5] = MessageHeaders.normalizeListId(values[5]);
+            return values;
+        }
+
+        private static String getHeader(MessagePart payload, String name) {
+            if (payload == null || payload.getHeaders() == null) {
+                return "";
+            }
+            for (MessagePartHeader header : payload.getHeaders()) {
+                if (header.getName().equalsIgnoreCase(name)) {
+                    return header.getValue();
+                }
+            }
+            return "";
+        }
+    }
+}
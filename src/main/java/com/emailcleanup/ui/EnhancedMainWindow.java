@@ -1,7 +1,9 @@
 package com.emailcleanup.ui;
 
 import com.emailcleanup.model.Email;
+import com.emailcleanup.model.ScanResult;
 import com.emailcleanup.model.SenderStats;
+import com.emailcleanup.model.UnsubscribeOutcome;
 import com.emailcleanup.service.*;
 //import com.emailcleanup.ui.components.*;
 import javafx.application.Platform;
@@ -17,6 +19,7 @@ import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.*;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import org.slf4j.Logger;
@@ -28,6 +31,7 @@ import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import com.emailcleanup.service.SmartAnalysisService.SenderDecayScore; // Import the record
@@ -85,7 +89,22 @@ public class EnhancedMainWindow {
         
         Menu fileMenu = new Menu("📧 File");
         MenuItem scanItem = new MenuItem("Scan Emails");
-        scanItem.setOnAction(e -> showScanDialog());
+        scanItem.setOnAction(e -> showScanDialog(false));
+        MenuItem fullRescanItem = new MenuItem("Full Rescan");
+        fullRescanItem.setOnAction(e -> showScanDialog(true));
+        MenuItem pauseScanItem = new MenuItem("Pause Scan");
+        pauseScanItem.setOnAction(e -> pauseScan());
+        MenuItem resumeScanItem = new MenuItem("Resume Scan");
+        resumeScanItem.setOnAction(e -> resumeScan());
+        CheckMenuItem keepRawItem = new CheckMenuItem("Keep Raw Messages Locally");
+        keepRawItem.setSelected(EmailScannerService.getInstance().isStoreRawMessages());
+        keepRawItem.setOnAction(e -> EmailScannerService.getInstance().setStoreRawMessages(keepRawItem.isSelected()));
+        MenuItem reparseItem = new MenuItem("Re-parse Kept Messages");
+        reparseItem.setOnAction(e -> runScan(progress -> EmailScannerService.getInstance().reparseStoredMessages(progress)));
+        MenuItem importMboxItem = new MenuItem("Import mbox File...");
+        importMboxItem.setOnAction(e -> importMbox());
+        MenuItem importMaildirItem = new MenuItem("Import Maildir...");
+        importMaildirItem.setOnAction(e -> importMaildir());
         MenuItem refreshItem = new MenuItem("Refresh");
         refreshItem.setOnAction(e -> refreshData());
         MenuItem exportCSVItem = new MenuItem("Export to CSV");
@@ -94,7 +113,10 @@ public class EnhancedMainWindow {
         exportReportItem.setOnAction(e -> exportReport());
         MenuItem exitItem = new MenuItem("Exit");
         exitItem.setOnAction(e -> Platform.exit());
-        fileMenu.getItems().addAll(scanItem, refreshItem, new SeparatorMenuItem(), 
+        fileMenu.getItems().addAll(scanItem, fullRescanItem, pauseScanItem, resumeScanItem, refreshItem,
+                                   new SeparatorMenuItem(), keepRawItem, reparseItem,
+                                   new SeparatorMenuItem(), importMboxItem, importMaildirItem,
+                                   new SeparatorMenuItem(), 
                                    exportCSVItem, exportReportItem, new SeparatorMenuItem(), exitItem);
         
         Menu viewMenu = new Menu("🎨 View");
@@ -116,7 +138,20 @@ public class EnhancedMainWindow {
         scheduleScanItem.setOnAction(e -> showScheduleDialog());
         MenuItem advancedSearchItem = new MenuItem("Advanced Search");
         advancedSearchItem.setOnAction(e -> showAdvancedSearch());
-        toolsMenu.getItems().addAll(scheduleScanItem, advancedSearchItem);
+        MenuItem ruleStatsItem = new MenuItem("Categorization Rule Stats");
+        ruleStatsItem.setOnAction(e -> showRuleStatistics());
+        MenuItem trainClassifierItem = new MenuItem("Train Category Classifier");
+        CheckMenuItem useClassifierItem = new CheckMenuItem("Use Trained Classifier");
+        useClassifierItem.setSelected(EmailCategorizerService.getInstance().isClassifierEnabled());
+        useClassifierItem.setOnAction(e -> toggleClassifier(useClassifierItem));
+        trainClassifierItem.setOnAction(e -> trainClassifier(useClassifierItem));
+        MenuItem recategorizeItem = new MenuItem("Re-categorize Stored Emails");
+        recategorizeItem.setOnAction(e -> recategorizeStoredEmails());
+        MenuItem checkRollupItem = new MenuItem("Check Sender Totals");
+        checkRollupItem.setOnAction(e -> checkSenderRollup());
+        toolsMenu.getItems().addAll(scheduleScanItem, advancedSearchItem, ruleStatsItem,
+                                    new SeparatorMenuItem(), trainClassifierItem, useClassifierItem,
+                                    recategorizeItem, new SeparatorMenuItem(), checkRollupItem);
         
         Menu helpMenu = new Menu("❓ Help");
         MenuItem aboutItem = new MenuItem("About");
@@ -320,6 +355,7 @@ smartTab.setContent(createSmartCleanPane());
         
         senderTable = new TableView<>();
         senderTable.setItems(senderData);
+        senderTable.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
         senderTable.getStyleClass().add("table-view");
         
         TableColumn<SenderStats, String> nameCol = new TableColumn<>("Sender Name");
@@ -361,7 +397,10 @@ smartTab.setContent(createSmartCleanPane());
         Button viewDetailsBtn = new Button("📊 View Details");
         viewDetailsBtn.setOnAction(e -> showSenderDetails());
         
-        actionBox.getChildren().addAll(deleteAllBtn, viewDetailsBtn);
+        Button bulkUnsubscribeBtn = new Button("📭 Unsubscribe Selected");
+        bulkUnsubscribeBtn.setOnAction(e -> unsubscribeFromSelectedSenders());
+        
+        actionBox.getChildren().addAll(deleteAllBtn, viewDetailsBtn, bulkUnsubscribeBtn);
         
         box.getChildren().addAll(label, senderTable, actionBox);
         VBox.setVgrow(senderTable, Priority.ALWAYS);
@@ -681,8 +720,7 @@ private VBox createSmartCleanPane() {
             new Thread(() -> {
                 try {
                     SmartAnalysisService service = new SmartAnalysisService();
-                    List<Email> allEmails = DatabaseService.getInstance().getAllEmails();
-                    List<SenderDecayScore> scores = service.analyzeInboxHealth(allEmails);
+                    List<SenderDecayScore> scores = service.analyzeInboxHealth();
                     
                     Platform.runLater(() -> {
                         smartTable.getItems().setAll(scores);
@@ -1005,6 +1043,138 @@ private VBox createSmartCleanPane() {
         throw new UnsupportedOperationException("Unimplemented method 'getHostServices'");
     }
 
+    private void showRuleStatistics() {
+        EmailCategorizerService categorizer = EmailCategorizerService.getInstance();
+        StringBuilder stats = new StringBuilder();
+        stats.append(String.format("%-20s %-12s %9s %9s %10s\n", "Rule", "Category", "Evaluated", "Fired", "Avg µs"));
+        for (EmailCategorizerService.RuleStats rule : categorizer.getRuleStats()) {
+            stats.append(String.format("%-20s %-12s %9d %9d %10.2f\n",
+                rule.name(), rule.category(), rule.evaluations(), rule.hits(), rule.averageMicros()));
+        }
+        EmailCategorizerService.SenderCacheStats cache = categorizer.getSenderCacheStats();
+        stats.append(String.format("\nSender cache: %d hits, %d misses (%.1f%% hit rate), %d senders (%d settled), %d evicted\n",
+            cache.hits(), cache.misses(), cache.hitRate() * 100, cache.senders(), cache.settledSenders(), cache.evictions()));
+        
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle("Categorization Rules");
+        alert.setHeaderText("Rules from " + categorizer.getRulesFile());
+        TextArea area = new TextArea(stats.toString());
+        area.setEditable(false);
+        area.setStyle("-fx-font-family: monospace;");
+        area.setPrefColumnCount(70);
+        alert.getDialogPane().setContent(area);
+        alert.showAndWait();
+    }
+
+    private void trainClassifier(CheckMenuItem useClassifierItem) {
+        updateStatus("Training category classifier...");
+        new Thread(() -> {
+            try {
+                EmailCategorizerService.ClassifierSummary summary = EmailCategorizerService.getInstance().trainClassifier();
+                Platform.runLater(() -> {
+                    useClassifierItem.setSelected(true);
+                    updateStatus("Category classifier trained");
+                    showInfo("Classifier Trained", String.format(
+                        "Trained on %d emails Gmail had categorized.\n" +
+                        "Accuracy on %d held-out emails: %.1f%%\n\n" +
+                        "New scans now use the classifier when it is confident.",
+                        summary.trainingExamples(), summary.heldOutExamples(), summary.heldOutAccuracy() * 100));
+                });
+            } catch (Exception e) {
+                logger.error("Failed to train category classifier", e);
+                Platform.runLater(() -> {
+                    updateStatus("Classifier training failed");
+                    showError("Training Error", "Failed to train the classifier: " + e.getMessage());
+                });
+            }
+        }).start();
+    }
+
+    private void recategorizeStoredEmails() {
+        updateStatus("Re-categorizing stored emails...");
+        new Thread(() -> {
+            try {
+                RecategorizationService.Summary summary = RecategorizationService.getInstance()
+                    .recategorizeAll(message -> Platform.runLater(() -> updateStatus(message)));
+                Platform.runLater(() -> {
+                    refreshData();
+                    showInfo("Re-categorization Complete", String.format(
+                        "Checked %d stored emails; %d changed category.\n" +
+                        "%d stored without their body could not be decided and kept their category.",
+                        summary.examined(), summary.changed(), summary.undecided()));
+                });
+            } catch (Exception e) {
+                logger.error("Failed to re-categorize stored emails", e);
+                Platform.runLater(() -> {
+                    updateStatus("Re-categorization failed");
+                    showError("Re-categorization Error", "Failed to re-categorize emails: " + e.getMessage());
+                });
+            }
+        }).start();
+    }
+
+    private void checkSenderRollup() {
+        updateStatus("Checking sender totals...");
+        new Thread(() -> {
+            try {
+                List<String> problems = DatabaseService.getInstance().checkSenderRollup();
+                Platform.runLater(() -> {
+                    if (problems.isEmpty()) {
+                        updateStatus("Sender totals are consistent");
+                        showInfo("Sender Totals", "Sender totals match the stored emails.");
+                        return;
+                    }
+                    updateStatus(String.format("%d sender totals are out of date", problems.size()));
+                    Alert confirm = new Alert(Alert.AlertType.CONFIRMATION);
+                    confirm.setTitle("Sender Totals");
+                    confirm.setHeaderText(String.format("%d sender totals do not match the stored emails. Rebuild them?",
+                        problems.size()));
+                    confirm.setContentText(String.join("\n", problems.subList(0, Math.min(10, problems.size()))));
+                    confirm.showAndWait().ifPresent(response -> {
+                        if (response == ButtonType.OK) {
+                            rebuildSenderRollup();
+                        }
+                    });
+                });
+            } catch (Exception e) {
+                logger.error("Failed to check sender totals", e);
+                Platform.runLater(() -> {
+                    updateStatus("Sender total check failed");
+                    showError("Check Error", "Failed to check sender totals: " + e.getMessage());
+                });
+            }
+        }).start();
+    }
+
+    private void rebuildSenderRollup() {
+        updateStatus("Rebuilding sender totals...");
+        new Thread(() -> {
+            try {
+                DatabaseService.getInstance().rebuildSenderRollup();
+                Platform.runLater(() -> {
+                    refreshData();
+                    updateStatus("Sender totals rebuilt");
+                });
+            } catch (Exception e) {
+                logger.error("Failed to rebuild sender totals", e);
+                Platform.runLater(() -> {
+                    updateStatus("Sender total rebuild failed");
+                    showError("Rebuild Error", "Failed to rebuild sender totals: " + e.getMessage());
+                });
+            }
+        }).start();
+    }
+
+    private void toggleClassifier(CheckMenuItem useClassifierItem) {
+        EmailCategorizerService categorizer = EmailCategorizerService.getInstance();
+        if (useClassifierItem.isSelected() && !categorizer.hasClassifier()) {
+            useClassifierItem.setSelected(false);
+            showWarning("No Classifier", "Train the classifier first (Tools > Train Category Classifier)");
+            return;
+        }
+        categorizer.setClassifierEnabled(useClassifierItem.isSelected());
+    }
+
     private void showAdvancedSearch() {
         Alert alert = new Alert(Alert.AlertType.INFORMATION);
         alert.setTitle("Advanced Search");
@@ -1091,7 +1261,7 @@ private VBox createSmartCleanPane() {
         showInfo("Logged Out", "Successfully logged out from Gmail");
     }
 
-    private void showScanDialog() {
+    private void showScanDialog(boolean forceFullScan) {
         TextInputDialog dialog = new TextInputDialog("1000");
         dialog.setTitle("Scan Emails");
         dialog.setHeaderText("Email Scan Configuration");
@@ -1101,14 +1271,65 @@ private VBox createSmartCleanPane() {
         result.ifPresent(value -> {
             try {
                 int maxResults = Integer.parseInt(value);
-                scanEmails(maxResults);
+                scanEmails(maxResults, forceFullScan);
             } catch (NumberFormatException e) {
                 showError("Invalid Input", "Please enter a valid number");
             }
         });
     }
 
-    private void scanEmails(int maxResults) {
+    private void scanEmails(int maxResults, boolean forceFullScan) {
+        runScan(progress -> EmailScannerService.getInstance().scanEmails(maxResults, forceFullScan, progress));
+    }
+
+    private void pauseScan() {
+        EmailScannerService.getInstance().pauseScan();
+        updateStatus("Pausing scan...");
+    }
+
+    private void resumeScan() {
+        try {
+            if (!EmailScannerService.getInstance().hasResumableScan()) {
+                showInfo("Resume Scan", "There is no paused scan to resume.");
+                return;
+            }
+        } catch (SQLException e) {
+            logger.error("Failed to look up paused scan", e);
+            showError("Resume Error", "Failed to look up paused scan: " + e.getMessage());
+            return;
+        }
+        runScan(progress -> EmailScannerService.getInstance().resumeScan(progress));
+    }
+
+    private void importMbox() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Import mbox File");
+        fileChooser.getExtensionFilters().addAll(
+            new FileChooser.ExtensionFilter("Mailbox Files", "*.mbox"),
+            new FileChooser.ExtensionFilter("All Files", "*.*")
+        );
+
+        File file = fileChooser.showOpenDialog(stage);
+        if (file != null) {
+            runScan(progress -> MailboxImportService.getInstance().importMbox(file.toPath(), progress));
+        }
+    }
+
+    private void importMaildir() {
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setTitle("Import Maildir");
+
+        File directory = directoryChooser.showDialog(stage);
+        if (directory != null) {
+            runScan(progress -> MailboxImportService.getInstance().importMaildir(directory.toPath(), progress));
+        }
+    }
+
+    private interface ScanTask {
+        ScanResult run(Consumer<String> progress) throws Exception;
+    }
+
+    private void runScan(ScanTask task) {
         new Thread(() -> {
             try {
                 Platform.runLater(() -> {
@@ -1116,14 +1337,21 @@ private VBox createSmartCleanPane() {
                     progressBar.setProgress(-1);
                 });
                 
-                EmailScannerService.getInstance().scanEmails(maxResults, message -> {
+                ScanResult result = task.run(message -> {
                     Platform.runLater(() -> updateStatus(message));
                 });
                 
                 Platform.runLater(() -> {
                     progressBar.setVisible(false);
                     refreshData();
-                    showInfo("Scan Complete", "Email scan completed successfully!");
+                    if (result.getWriteFailure() != null) {
+                        showError("Scan Error", "Failed to save scanned emails: "
+                                + result.getWriteFailure().getMessage());
+                    } else if (result.isPaused()) {
+                        showInfo("Scan Paused", "Scan paused. Use File > Resume Scan to continue.");
+                    } else {
+                        showInfo("Scan Complete", "Email scan completed successfully!");
+                    }
                 });
             } catch (Exception e) {
                 logger.error("Email scan failed", e);
@@ -1270,6 +1498,63 @@ private VBox createSmartCleanPane() {
         EmailActionService.getInstance().openUnsubscribeLink(selected.getUnsubscribeUrl());
     }
 
+    private void unsubscribeFromSelectedSenders() {
+        List<String> senders = senderTable.getSelectionModel().getSelectedItems().stream()
+            .map(SenderStats::getSenderEmail)
+            .collect(Collectors.toList());
+        if (senders.isEmpty()) {
+            showWarning("No Selection", "Please select one or more senders first");
+            return;
+        }
+        
+        new Thread(() -> {
+            try {
+                Platform.runLater(() -> updateStatus("Unsubscribing from " + senders.size() + " sender(s)..."));
+                BulkUnsubscribeService service = BulkUnsubscribeService.getInstance();
+                List<UnsubscribeOutcome> outcomes = service.unsubscribeAll(senders,
+                    progress -> Platform.runLater(() -> updateStatus(progress)));
+                
+                Map<UnsubscribeOutcome.Status, Long> counts = outcomes.stream()
+                    .collect(Collectors.groupingBy(UnsubscribeOutcome::getStatus, Collectors.counting()));
+                long succeeded = counts.getOrDefault(UnsubscribeOutcome.Status.SUCCEEDED, 0L);
+                long failed = counts.getOrDefault(UnsubscribeOutcome.Status.FAILED, 0L);
+                long browser = counts.getOrDefault(UnsubscribeOutcome.Status.BROWSER_REQUIRED, 0L);
+                long noLink = counts.getOrDefault(UnsubscribeOutcome.Status.NO_LINK, 0L);
+                
+                Platform.runLater(() -> {
+                    updateStatus(String.format("Unsubscribed from %d sender(s)", succeeded));
+                    Alert result = new Alert(browser > 0 ? Alert.AlertType.CONFIRMATION : Alert.AlertType.INFORMATION);
+                    result.setTitle("Bulk Unsubscribe");
+                    result.setHeaderText(String.format("Unsubscribed from %d of %d sender(s)", succeeded, senders.size()));
+                    result.setContentText(String.format(
+                        "One-click unsubscribe failed: %d\n" +
+                        "Need the browser: %d\n" +
+                        "No unsubscribe link: %d" +
+                        (browser > 0 ? "\n\nOpen the remaining unsubscribe pages in the browser?" : ""),
+                        failed, browser, noLink));
+                    result.showAndWait().ifPresent(response -> {
+                        if (browser > 0 && response == ButtonType.OK) {
+                            openUnsubscribePages(outcomes);
+                        }
+                    });
+                });
+            } catch (Exception e) {
+                logger.error("Bulk unsubscribe failed", e);
+                Platform.runLater(() -> showError("Unsubscribe Error", "Bulk unsubscribe failed: " + e.getMessage()));
+            }
+        }).start();
+    }
+
+    private void openUnsubscribePages(List<UnsubscribeOutcome> outcomes) {
+        new Thread(() -> {
+            try {
+                BulkUnsubscribeService.getInstance().openInBrowser(outcomes);
+            } catch (Exception e) {
+                logger.error("Failed to open unsubscribe pages", e);
+            }
+        }).start();
+    }
+
     private void updateStats(int totalEmails, long totalStorage, int promotional, int newsletter) {
         totalEmailsLabel.setText(String.valueOf(totalEmails));
         double storageMB = totalStorage / (1024.0 * 1024.0);
@@ -0,0 +1,17 @@
+package com.emailcleanup.service;
+
+/**
+ * Exposes the package-private test hooks of the service layer to test code in other packages,
+ * such as the fake Gmail server and the throughput runner.
+ */
+public final class GmailTestHooks {
+
+    private GmailTestHooks() {}
+
+    /**
+     * Points {@link GmailAuthService} at a local Gmail stand-in instead of Google.
+     */
+    public static void useLocalServer(String rootUrl) {
+        GmailAuthService.getInstance().useLocalServer(rootUrl);
+    }
+}
@@ -0,0 +1,54 @@
+package com.emailcleanup.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Checks that the streaming scanner finds the same unsubscribe link as the Jsoup based lookup it
+ * replaced, on markup it claims to read.
+ */
+class UnsubscribeLinkScannerTest {
+
+    private static final List<String> FIXTURES = List.of(
+            "<a href=\"https://example.com/unsubscribe?id=1\">here</a>",
+            "<p>Hello</p><a href=\"https://example.com\">Home</a>",
+            "<a href=\"https://example.com/home\">Home</a><a href=\"https://example.com/p\">Unsubscribe</a>",
+            "<A HREF='https://example.com/Unsubscribe'>Click</A>",
+            "<a href=https://example.com/unsubscribe>here</a>",
+            "<a href=\"https://example.com/r?a=1&amp;b=2\">Remove&nbsp;me</a>",
+            "<a href=\"https://example.com/p\"><span>Un</span><b>subscribe</b></a>",
+            "<a href=\"https://example.com/p\">opt<br>out</a>",
+            "<!-- <a href=\"https://example.com/unsubscribe\">x</a> --><a href=\"https://example.org/unsubscribe\">y</a>",
+            "<script>var s = '<a href=\"https://example.com/unsubscribe\">';</script>"
+                    + "<a href=\"https://example.org/other\">Unsubscribe</a>",
+            "<style>a { color: red; }</style><a href=\"https://example.com/u\">Opt out</a>",
+            "<p>a < b</p><a href=\"https://example.com/unsub\">Unsubscribe</a>",
+            "Save if x < y <a href=\"https://example.com/unsub\">Unsubscribe</a>",
+            "<p>1<2 and 3 <4</p><a href=\"https://example.com/u\">opt out</a>",
+            "<p>I <3 you, x <= y</p><a href=\"https://example.com/u\">remove</a>",
+            "<a href=\"https://example.com/u\">5 < 6, unsubscribe</a>",
+            "<!DOCTYPE html><html><body>Price < 5 <a href=\"https://example.com/u\">Unsubscribe</a></body></html>",
+            "<?xml version=\"1.0\"?><a href=\"https://example.com/u\">Unsubscribe</a>",
+            "Trailing <");
+
+    @Test
+    void findsTheSameLinkAsJsoup() {
+        for (String html : FIXTURES) {
+            UnsubscribeLinkScanner.Result result = UnsubscribeLinkScanner.scan(html);
+            assertNotEquals(UnsubscribeLinkScanner.Outcome.MALFORMED, result.outcome(), html);
+            assertEquals(UnsubscribeLinks.fromParsedHtml(html), result.url(), html);
+        }
+    }
+
+    @Test
+    void treatsALessThanSignInTextAsText() {
+        UnsubscribeLinkScanner.Result result = UnsubscribeLinkScanner.scan(
+                "Save if x < y <a href=\"https://example.com/unsub\">Unsubscribe</a>");
+        assertEquals(UnsubscribeLinkScanner.Outcome.FOUND, result.outcome());
+        assertEquals("https://example.com/unsub", result.url());
+    }
+}
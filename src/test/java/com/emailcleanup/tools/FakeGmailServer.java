@@ -0,0 +1,606 @@
+package com.emailcleanup.tools;
+
+import com.emailcleanup.service.GmailTestHooks;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the Gmail REST endpoints the app calls, serving a synthetic mailbox so scan
+ * throughput, concurrency and retry behaviour can be measured without network or credentials.
+ * It supports users.getProfile, messages.list, messages.get, messages.trash,
+ * messages.batchDelete, history.list and multipart batch requests.
+ *
+ * <p>Latency, a per-second quota budget that answers 429 like Gmail does when exceeded, and
+ * random 429 and 500 responses can all be configured. Test code points the app at it through
+ * {@link GmailTestHooks#useLocalServer(String)}.
+ */
+public class FakeGmailServer {
+    private static final Logger logger = LoggerFactory.getLogger(FakeGmailServer.class);
+
+    private static final String API_PREFIX = "/gmail/v1/users/";
+    private static final String BATCH_PATH = "/batch/gmail/v1";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int BODY_TEMPLATES = 64;
+    private static final long FIRST_MESSAGE_ID = 0x180000000000000L;
+    private static final long FIRST_HISTORY_ID = 100_000;
+    private static final long START_EPOCH_MILLIS = 1_600_000_000_000L;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Set<Long> deleted = ConcurrentHashMap.newKeySet();
+    private final Set<Long> trashed = ConcurrentHashMap.newKeySet();
+    private final List<Map<String, Object>> history = new ArrayList<>();
+    private final AtomicInteger messageCount;
+    private final AtomicLong historyId;
+    private final String[] htmlBodies = new String[BODY_TEMPLATES];
+    private final String[] plainBodies = new String[BODY_TEMPLATES];
+    private final String[] snippets = new String[BODY_TEMPLATES];
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile long minLatencyMillis;
+    private volatile long maxLatencyMillis;
+    private volatile double throttleRate;
+    private volatile double errorRate;
+    private volatile int unitsPerSecond;
+    private double quotaTokens;
+    private long quotaRefilledAt = System.nanoTime();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public FakeGmailServer(int messageCount) {
+        this.messageCount = new AtomicInteger(messageCount);
+        this.historyId = new AtomicLong(FIRST_HISTORY_ID + messageCount);
+        generateBodies();
+    }
+
+    /**
+     * Delays every top-level request by a random time in the given range.
+     */
+    public void setLatency(long minMillis, long maxMillis) {
+        this.minLatencyMillis = minMillis;
+        this.maxLatencyMillis = Math.max(minMillis, maxMillis);
+    }
+
+    /**
+     * Fraction of calls, batch items included, that are answered with a 429 regardless of quota.
+     */
+    public void setThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+    }
+
+    /**
+     * Fraction of calls, batch items included, that fail with a 500 backend error.
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Quota units per second available to callers, charged per call at Gmail's method costs.
+     * Zero, the default, disables the quota check.
+     */
+    public synchronized void setUnitsPerSecond(int unitsPerSecond) {
+        this.unitsPerSecond = unitsPerSecond;
+        this.quotaTokens = unitsPerSecond;
+    }
+
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "fake-gmail");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        logger.info("Fake Gmail server with {} messages listening on {}", messageCount.get(), getRootUrl());
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    public String getRootUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Adds new messages to the mailbox and records them in the history, as new mail arriving
+     * between two scans would.
+     */
+    public synchronized void addMessages(int count) {
+        for (int i = 0; i < count; i++) {
+            int index = messageCount.getAndIncrement();
+            recordHistory("messagesAdded", index, null);
+        }
+    }
+
+    public String getStats() {
+        return String.format("requests=%d, throttled=%d, failed=%d", requests.get(), throttled.get(), failed.get());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            sleepLatency();
+            String path = exchange.getRequestURI().getRawPath();
+            byte[] body = exchange.getRequestBody().readAllBytes();
+
+            if (path.equals(BATCH_PATH) || path.equals("/batch")) {
+                handleBatch(exchange, body);
+                return;
+            }
+            Response response = dispatch(exchange.getRequestMethod(), path,
+                    exchange.getRequestURI().getRawQuery(), body);
+            send(exchange, response.status(), "application/json; charset=UTF-8", response.body());
+        } catch (Exception e) {
+            logger.error("Fake Gmail request failed", e);
+        }
+    }
+
+    private record Response(int status, byte[] body) {
+    }
+
+    /**
+     * Handles one API call, whether sent on its own or as an item of a batch.
+     */
+    private Response dispatch(String method, String path, String query, byte[] body) throws IOException {
+        requests.incrementAndGet();
+        if (!path.startsWith(API_PREFIX)) {
+            return error(404, "notFound", "Unknown path " + path);
+        }
+        String[] segments = path.substring(API_PREFIX.length()).split("/");
+        Map<String, List<String>> params = parseQuery(query);
+
+        String resource = segments.length > 1 ? segments[1] : "";
+        int cost = switch (resource) {
+            case "profile" -> 1;
+            case "history" -> 2;
+            case "messages" -> segments.length > 2 && segments[2].equals("batchDelete") ? 50 : 5;
+            default -> 0;
+        };
+        Response injected = injectFailure(cost);
+        if (injected != null) {
+            return injected;
+        }
+
+        if (resource.equals("profile") && method.equals("GET")) {
+            return json(Map.of("emailAddress", "fake@example.com", "messagesTotal", messageCount.get(),
+                    "historyId", String.valueOf(historyId.get())));
+        }
+        if (resource.equals("history") && method.equals("GET")) {
+            return listHistory(params);
+        }
+        if (resource.equals("messages")) {
+            if (segments.length == 2 && method.equals("GET")) {
+                return listMessages(params);
+            }
+            if (segments.length == 3 && segments[2].equals("batchDelete") && method.equals("POST")) {
+                return batchDelete(body);
+            }
+            if (segments.length == 3 && method.equals("GET")) {
+                return getMessage(segments[2], params);
+            }
+            if (segments.length == 4 && segments[3].equals("trash") && method.equals("POST")) {
+                return trashMessage(segments[2]);
+            }
+        }
+        return error(404, "notFound", "Unsupported call " + method + " " + path);
+    }
+
+    private Response injectFailure(int cost) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < errorRate) {
+            failed.incrementAndGet();
+            return error(500, "backendError", "Backend Error");
+        }
+        if (random.nextDouble() < throttleRate || !consumeQuota(cost)) {
+            throttled.incrementAndGet();
+            return error(429, "rateLimitExceeded", "Too many concurrent requests for user");
+        }
+        return null;
+    }
+
+    private synchronized boolean consumeQuota(int cost) {
+        if (unitsPerSecond <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        quotaTokens = Math.min(unitsPerSecond, quotaTokens + (now - quotaRefilledAt) / 1e9 * unitsPerSecond);
+        quotaRefilledAt = now;
+        if (quotaTokens < cost) {
+            return false;
+        }
+        quotaTokens -= cost;
+        return true;
+    }
+
+    private Response listMessages(Map<String, List<String>> params) throws IOException {
+        int pageSize = Math.min(MAX_PAGE_SIZE, intParam(params, "maxResults", DEFAULT_PAGE_SIZE));
+        int count = messageCount.get();
+        // Newest first, like Gmail; the page token is the position to continue from
+        int position = intParam(params, "pageToken", 0);
+
+        List<Map<String, Object>> messages = new ArrayList<>(pageSize);
+        while (position < count && messages.size() < pageSize) {
+            long id = FIRST_MESSAGE_ID + (count - 1 - position);
+            position++;
+            if (!deleted.contains(id)) {
+                messages.add(Map.of("id", Long.toHexString(id), "threadId", Long.toHexString(id)));
+            }
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("messages", messages);
+        if (position < count) {
+            response.put("nextPageToken", String.valueOf(position));
+        }
+        response.put("resultSizeEstimate", count - deleted.size());
+        return json(response);
+    }
+
+    private Response getMessage(String id, Map<String, List<String>> params) throws IOException {
+        int index = indexOf(id);
+        if (index < 0) {
+            return error(404, "notFound", "Requested entity was not found.");
+        }
+        String format = stringParam(params, "format", "full");
+        return json(message(index, format, params.getOrDefault("metadataHeaders", List.of())));
+    }
+
+    private Response trashMessage(String id) throws IOException {
+        int index = indexOf(id);
+        if (index < 0) {
+            return error(404, "notFound", "Requested entity was not found.");
+        }
+        if (trashed.add(FIRST_MESSAGE_ID + index)) {
+            synchronized (this) {
+                recordHistory("labelsAdded", index, List.of("TRASH"));
+            }
+        }
+        return json(message(index, "minimal", List.of()));
+    }
+
+    private Response batchDelete(byte[] body) throws IOException {
+        JsonNode ids = mapper.readTree(body).path("ids");
+        synchronized (this) {
+            for (JsonNode node : ids) {
+                int index = indexOf(node.asText());
+                if (index >= 0) {
+                    deleted.add(FIRST_MESSAGE_ID + index);
+                    recordHistory("messagesDeleted", index, null);
+                }
+            }
+        }
+        return new Response(204, new byte[0]);
+    }
+
+    private Response listHistory(Map<String, List<String>> params) throws IOException {
+        long start = Long.parseLong(stringParam(params, "startHistoryId", "0"));
+        if (start < FIRST_HISTORY_ID) {
+            return error(404, "notFound", "Requested entity was not found.");
+        }
+
+        int position = intParam(params, "pageToken", 0);
+        List<Map<String, Object>> page = new ArrayList<>();
+        Map<String, Object> response = new LinkedHashMap<>();
+        synchronized (this) {
+            List<Map<String, Object>> matching = history.stream()
+                    .filter(record -> Long.parseLong((String) record.get("id")) > start)
+                    .toList();
+            while (position < matching.size() && page.size() < DEFAULT_PAGE_SIZE) {
+                page.add(matching.get(position++));
+            }
+            if (position < matching.size()) {
+                response.put("nextPageToken", String.valueOf(position));
+            }
+            response.put("historyId", String.valueOf(historyId.get()));
+        }
+        if (!page.isEmpty()) {
+            response.put("history", page);
+        }
+        return json(response);
+    }
+
+    private void recordHistory(String type, int index, List<String> labelIds) {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("id", Long.toHexString(FIRST_MESSAGE_ID + index));
+        message.put("labelIds", labelIds != null ? labelsOf(index) : List.of());
+
+        Map<String, Object> change = new LinkedHashMap<>();
+        change.put("message", message);
+        if (labelIds != null) {
+            change.put("labelIds", labelIds);
+        }
+
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("id", String.valueOf(historyId.incrementAndGet()));
+        record.put(type, List.of(change));
+        history.add(record);
+    }
+
+    /**
+     * Builds a synthetic message. Each message gets one of a fixed set of senders and bodies,
+     * chosen from its index so the mailbox is the same on every run.
+     */
+    private Map<String, Object> message(int index, String format, List<String> metadataHeaders) {
+        long id = FIRST_MESSAGE_ID + index;
+        int template = index % BODY_TEMPLATES;
+        int sender = (int) ((index * 2654435761L) % 997);
+        boolean bulk = sender % 3 != 0;
+
+        List<Map<String, String>> headers = new ArrayList<>();
+        headers.add(header("From", bulk
+                ? "\"Sender " + sender + "\" <news" + sender + "@list" + sender % 97 + ".example>"
+                : "Person " + sender + " <person" + sender + "@mail.example>"));
+        headers.add(header("Subject", (bulk ? "Weekly newsletter " : "Catching up ") + index));
+        headers.add(header("Message-ID", "<" + id + "@fake.example>"));
+        headers.add(header("Date", "Mon, 1 Jan 2024 00:00:00 +0000"));
+        if (bulk && sender % 2 == 0) {
+            headers.add(header("List-Unsubscribe", "<https://list" + sender % 97 + ".example/unsubscribe?u="
+                    + index + ">, <mailto:unsubscribe@list" + sender % 97 + ".example>"));
+        }
+
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("id", Long.toHexString(id));
+        message.put("threadId", Long.toHexString(id));
+        message.put("labelIds", labelsOf(index));
+        if (format.equals("minimal")) {
+            return message;
+        }
+        message.put("snippet", snippets[template]);
+        message.put("historyId", String.valueOf(FIRST_HISTORY_ID + index));
+        message.put("internalDate", String.valueOf(START_EPOCH_MILLIS + index * 60_000L));
+        message.put("sizeEstimate", htmlBodies[template].length() + plainBodies[template].length() + 600);
+
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("partId", "");
+        payload.put("mimeType", "multipart/alternative");
+        if (format.equals("metadata")) {
+            payload.put("headers", metadataHeaders.isEmpty() ? headers : headers.stream()
+                    .filter(h -> metadataHeaders.stream().anyMatch(name -> name.equalsIgnoreCase(h.get("name"))))
+                    .toList());
+        } else {
+            payload.put("headers", headers);
+            payload.put("body", Map.of("size", 0));
+            payload.put("parts", List.of(
+                    part("0", "text/plain", plainBodies[template]),
+                    part("1", "text/html", htmlBodies[template])));
+        }
+        message.put("payload", payload);
+        return message;
+    }
+
+    private List<String> labelsOf(int index) {
+        List<String> labels = new ArrayList<>();
+        labels.add(trashed.contains(FIRST_MESSAGE_ID + index) ? "TRASH" : "INBOX");
+        if (index % 4 == 0) {
+            labels.add("UNREAD");
+        }
+        labels.add(index % 3 == 0 ? "CATEGORY_PERSONAL" : "CATEGORY_PROMOTIONS");
+        return labels;
+    }
+
+    private static Map<String, Object> part(String partId, String mimeType, String data) {
+        Map<String, Object> part = new LinkedHashMap<>();
+        part.put("partId", partId);
+        part.put("mimeType", mimeType);
+        part.put("headers", List.of(header("Content-Type", mimeType + "; charset=UTF-8")));
+        part.put("body", Map.of("size", data.length() * 3 / 4, "data", data));
+        return part;
+    }
+
+    private static Map<String, String> header(String name, String value) {
+        Map<String, String> header = new LinkedHashMap<>();
+        header.put("name", name);
+        header.put("value", value);
+        return header;
+    }
+
+    /**
+     * Pre-encodes a fixed set of bodies from about 2 KB to 200 KB, so serving a message costs
+     * little more than writing it out.
+     */
+    private void generateBodies() {
+        Random random = new Random(42);
+        Base64.Encoder encoder = Base64.getUrlEncoder();
+        for (int i = 0; i < BODY_TEMPLATES; i++) {
+            int paragraphs = 10 + random.nextInt(i % 8 == 0 ? 2000 : 100);
+            StringBuilder html = new StringBuilder("<html><head><style>p{margin:0}</style></head><body>");
+            StringBuilder plain = new StringBuilder();
+            for (int p = 0; p < paragraphs; p++) {
+                String text = "Deal " + p + ": save " + (5 + random.nextInt(70)) + "% on item " + random.nextInt(10_000);
+                html.append("<p class=\"item\">").append(text).append("</p>\n");
+                plain.append(text).append('\n');
+            }
+            html.append("<p><a href=\"https://list").append(i).append(".example/unsubscribe?t=")
+                    .append(i).append("\">Unsubscribe</a></p></body></html>");
+            htmlBodies[i] = encoder.encodeToString(html.toString().getBytes(StandardCharsets.UTF_8));
+            plainBodies[i] = encoder.encodeToString(plain.toString().getBytes(StandardCharsets.UTF_8));
+            snippets[i] = plain.substring(0, Math.min(150, plain.length())).replace('\n', ' ');
+        }
+    }
+
+    /**
+     * Runs each item of a multipart/mixed batch through {@link #dispatch} and answers with a
+     * multipart/mixed response in the same order.
+     */
+    private void handleBatch(HttpExchange exchange, byte[] body) throws IOException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        int boundaryIndex = contentType != null ? contentType.indexOf("boundary=") : -1;
+        if (boundaryIndex < 0) {
+            Response response = error(400, "badRequest", "Missing multipart boundary");
+            send(exchange, response.status(), "application/json; charset=UTF-8", response.body());
+            return;
+        }
+        String boundary = contentType.substring(boundaryIndex + "boundary=".length()).replace("\"", "");
+        String request = new String(body, StandardCharsets.UTF_8);
+
+        String responseBoundary = "batch_" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int item = 0;
+        for (String part : request.split("--" + boundary)) {
+            int split = part.indexOf("\r\n\r\n");
+            if (split < 0 || part.startsWith("--")) {
+                continue;
+            }
+            item++;
+            String innerRequest = part.substring(split + 4);
+            int headerEnd = innerRequest.indexOf("\r\n\r\n");
+            String innerHead = headerEnd >= 0 ? innerRequest.substring(0, headerEnd) : innerRequest.trim();
+            String innerBody = headerEnd >= 0 ? innerRequest.substring(headerEnd + 4).trim() : "";
+
+            String[] requestLine = innerHead.split("\r\n", 2)[0].split(" ");
+            String target = requestLine[1];
+            if (target.startsWith("http")) {
+                // The client sends absolute URLs inside batches
+                target = target.substring(target.indexOf('/', target.indexOf("//") + 2));
+            }
+            int queryStart = target.indexOf('?');
+            Response response = dispatch(requestLine[0],
+                    queryStart >= 0 ? target.substring(0, queryStart) : target,
+                    queryStart >= 0 ? target.substring(queryStart + 1) : null,
+                    innerBody.getBytes(StandardCharsets.UTF_8));
+
+            out.write(("--" + responseBoundary + "\r\n"
+                    + "Content-Type: application/http\r\n"
+                    + "Content-ID: <response-" + item + ">\r\n\r\n"
+                    + "HTTP/1.1 " + response.status() + " " + reason(response.status()) + "\r\n"
+                    + "Content-Type: application/json; charset=UTF-8\r\n"
+                    + "Content-Length: " + response.body().length + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            out.write(response.body());
+            out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+        out.write(("--" + responseBoundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        send(exchange, 200, "multipart/mixed; boundary=" + responseBoundary, out.toByteArray());
+    }
+
+    private static String reason(int status) {
+        return switch (status) {
+            case 200 -> "OK";
+            case 204 -> "No Content";
+            case 404 -> "Not Found";
+            case 429 -> "Too Many Requests";
+            case 500 -> "Internal Server Error";
+            default -> "Error";
+        };
+    }
+
+    private Response json(Object value) throws IOException {
+        return new Response(200, mapper.writeValueAsBytes(value));
+    }
+
+    private Response error(int status, String reason, String message) throws IOException {
+        Map<String, Object> info = Map.of("domain", status == 429 ? "usageLimits" : "global",
+                "reason", reason, "message", message);
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("code", status);
+        error.put("message", message);
+        error.put("errors", List.of(info));
+        return new Response(status, mapper.writeValueAsBytes(Map.of("error", error)));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if (status == 204) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void sleepLatency() throws InterruptedException {
+        long max = maxLatencyMillis;
+        if (max > 0) {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(minLatencyMillis, max + 1));
+        }
+    }
+
+    private int indexOf(String id) {
+        try {
+            long index = Long.parseLong(id, 16) - FIRST_MESSAGE_ID;
+            boolean exists = index >= 0 && index < messageCount.get() && !deleted.contains(FIRST_MESSAGE_ID + index);
+            return exists ? (int) index : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Map<String, List<String>> parseQuery(String query) {
+        Map<String, List<String>> params = new LinkedHashMap<>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq >= 0 ? pair.substring(0, eq) : pair, StandardCharsets.UTF_8);
+            String value = eq >= 0 ? URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8) : "";
+            params.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+        }
+        return params;
+    }
+
+    private static String stringParam(Map<String, List<String>> params, String name, String defaultValue) {
+        List<String> values = params.get(name);
+        return values != null && !values.isEmpty() ? values.get(0) : defaultValue;
+    }
+
+    private static int intParam(Map<String, List<String>> params, String name, int defaultValue) {
+        try {
+            return Integer.parseInt(stringParam(params, name, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Starts a server from the command line:
+     * {@code FakeGmailServer [port] [messages] [latencyMillis] [unitsPerSecond] [throttleRate] [errorRate]}.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8089;
+        FakeGmailServer server = new FakeGmailServer(args.length > 1 ? Integer.parseInt(args[1]) : 10_000);
+        long latency = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        server.setLatency(latency / 2, latency * 3 / 2);
+        server.setUnitsPerSecond(args.length > 3 ? Integer.parseInt(args[3]) : 250);
+        server.setThrottleRate(args.length > 4 ? Double.parseDouble(args[4]) : 0);
+        server.setErrorRate(args.length > 5 ? Double.parseDouble(args[5]) : 0);
+        server.start(port);
+        System.out.println("Fake Gmail server listening at " + server.getRootUrl());
+    }
+}
@@ -0,0 +1,74 @@
+package com.emailcleanup.tools;
+
+import com.emailcleanup.model.ScanResult;
+import com.emailcleanup.service.DatabaseService;
+import com.emailcleanup.service.EmailScannerService;
+import com.emailcleanup.service.GmailRateLimiter;
+import com.emailcleanup.service.GmailTestHooks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures full-scan throughput against a {@link FakeGmailServer}, using a throwaway database
+ * in a temporary home directory so real data is never touched:
+ * {@code ScanThroughputRunner [messages] [parallelism] [batchSize] [FULL|METADATA] [latencyMillis]
+ * [unitsPerSecond] [throttleRate] [errorRate] [keepRaw]}. With {@code keepRaw} set to true the
+ * scan also keeps raw messages, and re-parsing them all locally is timed afterwards.
+ */
+public class ScanThroughputRunner {
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        EmailScannerService.ScanMode mode = args.length > 3
+                ? EmailScannerService.ScanMode.valueOf(args[3]) : EmailScannerService.ScanMode.FULL;
+        long latency = args.length > 4 ? Long.parseLong(args[4]) : 20;
+        int unitsPerSecond = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+
+        Path home = Files.createTempDirectory("smartmail-scan-");
+        System.setProperty("user.home", home.toString());
+
+        FakeGmailServer server = new FakeGmailServer(messages);
+        server.setLatency(latency / 2, latency * 3 / 2);
+        server.setUnitsPerSecond(unitsPerSecond);
+        server.setThrottleRate(args.length > 6 ? Double.parseDouble(args[6]) : 0);
+        server.setErrorRate(args.length > 7 ? Double.parseDouble(args[7]) : 0);
+        server.start(0);
+        GmailTestHooks.useLocalServer(server.getRootUrl());
+
+        DatabaseService.getInstance().initialize();
+        EmailScannerService scanner = EmailScannerService.getInstance();
+        scanner.setParallelism(parallelism);
+        scanner.setBatchSize(batchSize);
+        scanner.setScanMode(mode);
+        boolean keepRaw = args.length > 8 && Boolean.parseBoolean(args[8]);
+        scanner.setStoreRawMessages(keepRaw);
+
+        try {
+            long start = System.nanoTime();
+            ScanResult result = scanner.scanEmails(messages, true, progress -> { });
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("Scanned %d messages in %.2f s (%.0f messages/s)%n",
+                    result.getProcessed(), seconds, result.getProcessed() / seconds);
+            System.out.printf("parallelism=%d, batchSize=%d, mode=%s, latency=%d ms%n",
+                    parallelism, batchSize, mode, latency);
+            System.out.println("Result: " + result);
+            System.out.println("Server: " + server.getStats());
+            System.out.printf("Limiter rate at end: %.0f units/s%n", GmailRateLimiter.getInstance().getUnitsPerSecond());
+
+            if (keepRaw) {
+                start = System.nanoTime();
+                ScanResult reparsed = scanner.reparseStoredMessages(progress -> { });
+                seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("Re-parsed %d kept messages in %.2f s (%.0f messages/s)%n",
+                        reparsed.getSaved(), seconds, reparsed.getSaved() / seconds);
+            }
+        } finally {
+            DatabaseService.getInstance().shutdown();
+            server.stop();
+        }
+    }
+}